@@ -0,0 +1,43 @@
+package com.neverwinterdp.kafkaproducer.messagegenerator;
+
+import kafka.producer.Partitioner;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Turns the messages of a String generator into UTF-8 bytes, for use with a BinaryKafkaWriter.
+ * Generators that produce bytes natively should implement MessageGenerator<byte[]> directly.
+ */
+public class BytesMessageGenerator implements MessageGenerator<byte[]> {
+
+  private MessageGenerator<String> generator;
+
+  public BytesMessageGenerator(MessageGenerator<String> generator) {
+    this.generator = generator;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return generator.hasNext();
+  }
+
+  @Override
+  public byte[] next() {
+    return generator.next().getBytes(Charsets.UTF_8);
+  }
+
+  @Override
+  public void remove() {
+    generator.remove();
+  }
+
+  @Override
+  public Class<? extends Partitioner> getPartitionerClass() {
+    return generator.getPartitionerClass();
+  }
+
+  @Override
+  public void setPartitionerClass(Class<? extends Partitioner> partitionerClass) {
+    generator.setPartitionerClass(partitionerClass);
+  }
+}
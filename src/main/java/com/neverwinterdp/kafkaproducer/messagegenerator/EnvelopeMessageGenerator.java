@@ -0,0 +1,58 @@
+package com.neverwinterdp.kafkaproducer.messagegenerator;
+
+import java.util.Arrays;
+
+import kafka.producer.Partitioner;
+
+import com.neverwinterdp.kafkaproducer.partitioner.EnvelopePartitioner;
+import com.neverwinterdp.kafkaproducer.util.MessageEnvelope;
+
+/**
+ * Generates {@link MessageEnvelope}s for a BinaryKafkaWriter: the writer id and partition it was
+ * built with, an increasing sequence, the send time and a constant payload of payloadSize bytes.
+ *
+ * The messages are routed by an {@link EnvelopePartitioner}, which reads the partition from the
+ * envelope.
+ */
+public class EnvelopeMessageGenerator implements MessageGenerator<byte[]> {
+
+  private final int writerId;
+  private final int partition;
+  private final byte[] payload;
+  private long sequenceID;
+  private Class<? extends Partitioner> partitionerClass;
+
+  public EnvelopeMessageGenerator(int partition, int writerId, int payloadSize) {
+    this.writerId = writerId;
+    this.partition = partition;
+    this.payload = new byte[payloadSize];
+    Arrays.fill(payload, (byte) 'x');
+    this.partitionerClass = EnvelopePartitioner.class;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return sequenceID < Long.MAX_VALUE;
+  }
+
+  @Override
+  public byte[] next() {
+    return MessageEnvelope.encode(writerId, partition, ++sequenceID,
+        MessageEnvelope.currentTimeNanos(), payload);
+  }
+
+  @Override
+  public void remove() {
+    sequenceID--;
+  }
+
+  @Override
+  public Class<? extends Partitioner> getPartitionerClass() {
+    return partitionerClass;
+  }
+
+  @Override
+  public void setPartitionerClass(Class<? extends Partitioner> partitionerClass) {
+    this.partitionerClass = partitionerClass;
+  }
+}
@@ -0,0 +1,160 @@
+package com.neverwinterdp.kafkaproducer.messagegenerator;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import kafka.producer.Partitioner;
+
+import com.google.common.base.Charsets;
+import com.neverwinterdp.kafkaproducer.partitioner.SimplePartitioner;
+
+/**
+ * Writes the same records as {@link DefaultMessageGenerator}, byte for byte in UTF-8, without the
+ * per message Date, SimpleDateFormat and string concatenations.
+ *
+ * The "TOPIC:.., PARTITION:.., WriterID:.., SEQUENCE:" prefix is encoded once, the sequence is
+ * written digit by digit and the "HH:mm:ss:SSSS" time is only reformatted when the millisecond
+ * changes. {@link #next(byte[], int)} writes into the caller's buffer and allocates nothing;
+ * {@link #next()} allocates the returned array only.
+ *
+ * Like other iterators, an instance is meant to be used from one thread.
+ */
+public class TemplateMessageGenerator implements MessageGenerator<byte[]> {
+
+  private static final byte[] TIME = ", TIME:".getBytes(Charsets.UTF_8);
+  // HH:mm:ss:SSSS
+  private static final int TIME_LENGTH = 13;
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  private final byte[] prefix;
+  private final byte[] time;
+  private final TimeZone timeZone;
+  private long sequenceID;
+  private long timeMillis;
+  private long zoneOffset;
+  private long zoneOffsetMinute;
+  private Class<? extends Partitioner> partitionerClass;
+
+  public TemplateMessageGenerator(String topic, int partition, int id) {
+    this.prefix =
+        ("TOPIC:" + topic + ", PARTITION:" + partition + ", WriterID:" + id + ", SEQUENCE:")
+            .getBytes(Charsets.UTF_8);
+    this.time = new byte[TIME_LENGTH];
+    this.timeZone = TimeZone.getDefault();
+    this.timeMillis = -1;
+    this.zoneOffsetMinute = Long.MIN_VALUE;
+    this.partitionerClass = SimplePartitioner.class;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return sequenceID < Long.MAX_VALUE;
+  }
+
+  @Override
+  public byte[] next() {
+    long sequence = ++sequenceID;
+    byte[] message = new byte[prefix.length + digits(sequence) + TIME.length + TIME_LENGTH];
+    write(sequence, message, 0);
+    return message;
+  }
+
+  /**
+   * Write the next message into buffer at offset.
+   *
+   * @return the length of the message
+   * @throws ArrayIndexOutOfBoundsException if the buffer is too small, see {@link #maxLength()}
+   */
+  public int next(byte[] buffer, int offset) {
+    return write(++sequenceID, buffer, offset);
+  }
+
+  /**
+   * @return the longest message this generator can produce
+   */
+  public int maxLength() {
+    return prefix.length + digits(Long.MAX_VALUE) + TIME.length + TIME_LENGTH;
+  }
+
+  private int write(long sequence, byte[] buffer, int offset) {
+    int position = offset;
+    System.arraycopy(prefix, 0, buffer, position, prefix.length);
+    position += prefix.length;
+    position = writeDigits(sequence, buffer, position);
+    System.arraycopy(TIME, 0, buffer, position, TIME.length);
+    position += TIME.length;
+    updateTime(System.currentTimeMillis());
+    System.arraycopy(time, 0, buffer, position, TIME_LENGTH);
+    return position + TIME_LENGTH - offset;
+  }
+
+  /**
+   * Format millis as SimpleDateFormat("HH:mm:ss:SSSS") would in the default time zone.
+   */
+  void updateTime(long millis) {
+    if (millis == timeMillis) {
+      return;
+    }
+    // zones only change offset on minute boundaries, look it up once a minute
+    if (millis / MINUTE != zoneOffsetMinute) {
+      zoneOffset = timeZone.getOffset(millis);
+      zoneOffsetMinute = millis / MINUTE;
+    }
+    timeMillis = millis;
+    long local = ((millis + zoneOffset) % DAY + DAY) % DAY;
+    int ms = (int) (local % 1000);
+    int seconds = (int) (local / 1000);
+    writePadded(seconds / 3600, 2, 0);
+    time[2] = ':';
+    writePadded(seconds / 60 % 60, 2, 3);
+    time[5] = ':';
+    writePadded(seconds % 60, 2, 6);
+    time[8] = ':';
+    writePadded(ms, 4, 9);
+  }
+
+  byte[] getTime() {
+    return time;
+  }
+
+  private void writePadded(int value, int width, int offset) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      time[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static int writeDigits(long value, byte[] buffer, int offset) {
+    int end = offset + digits(value);
+    for (int i = end - 1; i >= offset; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return end;
+  }
+
+  private static int digits(long value) {
+    int digits = 1;
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+
+  @Override
+  public void remove() {
+    sequenceID--;
+  }
+
+  @Override
+  public Class<? extends Partitioner> getPartitionerClass() {
+    return partitionerClass;
+  }
+
+  @Override
+  public void setPartitionerClass(Class<? extends Partitioner> partitionerClass) {
+    this.partitionerClass = partitionerClass;
+  }
+}
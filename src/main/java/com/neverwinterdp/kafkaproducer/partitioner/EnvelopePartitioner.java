@@ -0,0 +1,30 @@
+package com.neverwinterdp.kafkaproducer.partitioner;
+
+import kafka.producer.Partitioner;
+import kafka.utils.VerifiableProperties;
+
+import com.neverwinterdp.kafkaproducer.util.MessageEnvelope;
+
+/**
+ * Routes a {@link MessageEnvelope} to the partition stored in it, read at its fixed offset.
+ *
+ * A BinaryKafkaWriter hands the message itself to this partitioner. A writer with a fixed partition
+ * gives it the partition number, which is honoured as well.
+ */
+public class EnvelopePartitioner implements Partitioner {
+
+  public EnvelopePartitioner(VerifiableProperties props) {}
+
+  @Override
+  public int partition(Object key, int numPartitions) {
+    int partition;
+    if (key instanceof byte[]) {
+      partition = MessageEnvelope.getPartition((byte[]) key);
+    } else if (key instanceof Integer) {
+      partition = (Integer) key;
+    } else {
+      partition = Integer.parseInt(key.toString());
+    }
+    return partition < numPartitions ? partition : partition % numPartitions;
+  }
+}
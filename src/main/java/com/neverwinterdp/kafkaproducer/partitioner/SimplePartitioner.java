@@ -5,24 +5,47 @@ import kafka.utils.VerifiableProperties;
 
 /**
  * A partitioner that writes to the specified partition.
- * The required partition is passed to the Partitioner as a string via
- * <code> KeyedMessage<String, String> data = new KeyedMessage<String, String>(topic,partition,message);</code>
+ * The required partition is passed to the Partitioner as an Integer partition key via
+ * <code> KeyedMessage<String, String> data = new KeyedMessage<String, String>(topic, key, partition, message);</code>
+ * which is what the writers do for a fixed partition or {@code write(message, partition)}.
+ *
+ * Otherwise the key is a message of the DefaultMessageGenerator and the partition is read after
+ * "PARTITION:", or a plain partition number. Neither way allocates.
  */
 public class SimplePartitioner implements Partitioner {
 
+  private static final String PARTITION = "PARTITION:";
+
   public SimplePartitioner(VerifiableProperties props) {}
 
   @Override
   public int partition(Object key, int numPartitions) {
+    int partition;
+    if (key instanceof Integer) {
+      partition = (Integer) key;
+    } else {
+      partition = parsePartition((String) key);
+    }
+    // a partition past the last one wraps around rather than naming one that does not exist
+    return partition < numPartitions ? partition : partition % numPartitions;
+  }
 
-    String keyString = (String) key;
-    // between "PARTITION:" and ","
-
-    keyString = keyString.substring(keyString.indexOf("PARTITION"));
-    keyString = keyString.substring(keyString.indexOf("PARTITION:") + 10,
-        keyString.indexOf(","));
- 
-    int partition = Integer.parseInt(keyString);
-    return partition <= numPartitions ? partition : numPartitions;
+  // between "PARTITION:" and ","
+  static int parsePartition(String key) {
+    int start = key.indexOf(PARTITION);
+    start = start < 0 ? 0 : start + PARTITION.length();
+    int partition = 0;
+    int i = start;
+    for (; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      partition = partition * 10 + (c - '0');
+    }
+    if (i == start) {
+      throw new NumberFormatException("No partition in key " + key);
+    }
+    return partition;
   }
 }
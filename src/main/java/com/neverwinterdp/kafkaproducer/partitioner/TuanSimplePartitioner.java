@@ -11,7 +11,7 @@ public class TuanSimplePartitioner implements Partitioner {
   public TuanSimplePartitioner(VerifiableProperties props) {}
 
   public int partition(Object key, int a_numPartitions) {
-    String strKey = (String) key;
+    String strKey = key.toString();
     String subKey = strKey;
     int partition = 0;
     int offset = strKey.lastIndexOf('.');
@@ -0,0 +1,288 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kafka.api.FetchRequestBuilder;
+import kafka.api.PartitionOffsetRequestInfo;
+import kafka.common.TopicAndPartition;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.OffsetRequest;
+import kafka.javaapi.OffsetResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.message.ByteBufferMessageSet;
+import kafka.message.MessageAndOffset;
+
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+
+/**
+ * Replays a range of offsets of one partition with several fetches in flight.
+ *
+ * The range is cut into slices of rangeSize offsets. Each slice is read by one of the worker
+ * threads, on a consumer borrowed from the {@link ReaderContext}, so the workers use separate
+ * connections. An ordered scan hands the messages over in offset order, from the calling thread,
+ * and keeps at most two slices per worker fetched ahead of it. An unordered scan hands each slice
+ * over from its worker as soon as it is read, so the handler has to be thread safe.
+ *
+ * A slice stops once it holds SLICE_FETCHES fetch sizes of messages, and the rest of it is read as
+ * the next slice, so the read-ahead stays within a few fetch sizes per worker however many offsets
+ * a slice spans.
+ */
+public class BackfillScanner {
+  public static final int DEFAULT_FETCH_SIZE = 1024 * 1024;
+  // the bytes of messages a slice holds at most, in fetch sizes
+  static final int SLICE_FETCHES = 4;
+  private static final Logger logger = Logger.getLogger(BackfillScanner.class);
+
+  private final ReaderContext context;
+  private final String topic;
+  private final int partition;
+  private final int workers;
+  private long rangeSize;
+  private int fetchSize;
+  private final AtomicLong fetchRequests;
+
+  /**
+   * Receives the messages of a scan. Called from the worker threads by an unordered scan.
+   */
+  public interface PayloadHandler {
+    void onMessage(ByteBuffer payload, long offset);
+  }
+
+  public BackfillScanner(ReaderContext context, String topic, int partition, int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be positive " + workers);
+    }
+    this.context = context;
+    this.topic = topic;
+    this.partition = partition;
+    this.workers = workers;
+    this.fetchSize = DEFAULT_FETCH_SIZE;
+    this.fetchRequests = new AtomicLong();
+  }
+
+  /**
+   * The number of offsets read by one worker in one go. By default the range is cut in four slices
+   * per worker; a slice over the byte limit is read in several goes either way.
+   */
+  public void setRangeSize(long rangeSize) {
+    this.rangeSize = rangeSize;
+  }
+
+  /**
+   * The bytes asked per fetch, grown for a message that does not fit.
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * @return the number of fetch requests sent so far
+   */
+  public long getFetchRequests() {
+    return fetchRequests.get();
+  }
+
+  /**
+   * Hand every message from the earliest to the latest offset to the handler, in offset order.
+   *
+   * @return the number of messages read
+   */
+  public long scan(PayloadHandler handler) throws InterruptedException, ExecutionException {
+    return scanAll(handler, true);
+  }
+
+  /**
+   * As {@link #scan(PayloadHandler)}, in no particular order and from the worker threads.
+   */
+  public long scanUnordered(PayloadHandler handler) throws InterruptedException,
+      ExecutionException {
+    return scanAll(handler, false);
+  }
+
+  private long scanAll(PayloadHandler handler, boolean ordered) throws InterruptedException,
+      ExecutionException {
+    HostPort leader = context.getLeader(topic, partition);
+    SimpleConsumer consumer = context.borrow(leader);
+    long earliest;
+    long latest;
+    try {
+      earliest = getOffset(consumer, kafka.api.OffsetRequest.EarliestTime());
+      latest = getOffset(consumer, kafka.api.OffsetRequest.LatestTime());
+    } catch (RuntimeException e) {
+      context.invalidate(consumer);
+      throw e;
+    }
+    context.release(consumer);
+    return scan(earliest, latest, handler, ordered);
+  }
+
+  /**
+   * Read the offsets from, inclusive, to to, exclusive.
+   *
+   * @return the number of messages read
+   */
+  public long scan(long from, long to, final PayloadHandler handler, boolean ordered)
+      throws InterruptedException, ExecutionException {
+    long size = rangeSize > 0 ? rangeSize : Math.max(1, (to - from) / (workers * 4));
+    logger.info("Scanning " + topic + "/" + partition + " from " + from + " to " + to
+        + " in slices of " + size + " with " + workers + " workers");
+    final AtomicLong read = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+    try {
+      long next = from;
+      while (next < to || !pending.isEmpty()) {
+        if (next < to && pending.size() < workers * 2) {
+          long end = Math.min(to, next + size);
+          pending.addLast(executor.submit(new Slice(next, end, ordered ? null : handler, read)));
+          next = end;
+          continue;
+        }
+        Chunk chunk = pending.pollFirst().get();
+        if (chunk.next < chunk.end) {
+          // the slice stopped at its byte limit, the rest of it is next in offset order
+          pending.addFirst(executor.submit(new Slice(chunk.next, chunk.end,
+              ordered ? null : handler, read)));
+        }
+        for (MessageAndOffset message : chunk.messages) {
+          handler.onMessage(message.message().payload(), message.offset());
+          read.incrementAndGet();
+        }
+      }
+    } finally {
+      for (Future<?> future : pending) {
+        future.cancel(false);
+      }
+      executor.shutdown();
+    }
+    return read.get();
+  }
+
+  private long getOffset(SimpleConsumer consumer, long time) {
+    Map<TopicAndPartition, PartitionOffsetRequestInfo> offsetInfo =
+        new HashMap<TopicAndPartition, PartitionOffsetRequestInfo>();
+    offsetInfo
+        .put(new TopicAndPartition(topic, partition), new PartitionOffsetRequestInfo(time, 1));
+    OffsetResponse response =
+        consumer.getOffsetsBefore(new OffsetRequest(offsetInfo, kafka.api.OffsetRequest
+            .CurrentVersion(), getClientName()));
+    return response.offsets(topic, partition)[0];
+  }
+
+  private String getClientName() {
+    return topic + "_" + partition + "_backfill";
+  }
+
+  /**
+   * The messages a slice read, and the offset it stopped at, end when it read all of them.
+   */
+  private static class Chunk {
+    final List<MessageAndOffset> messages;
+    final long next;
+    final long end;
+
+    Chunk(List<MessageAndOffset> messages, long next, long end) {
+      this.messages = messages;
+      this.next = next;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Reads the offsets [start, end) on its own connection, up to the slice byte limit. With a
+   * handler the messages are handed over at once and the chunk holds none.
+   */
+  private class Slice implements Callable<Chunk> {
+    final long start;
+    final long end;
+    final PayloadHandler handler;
+    final AtomicLong read;
+
+    Slice(long start, long end, PayloadHandler handler, AtomicLong read) {
+      this.start = start;
+      this.end = end;
+      this.handler = handler;
+      this.read = read;
+    }
+
+    @Override
+    public Chunk call() {
+      SimpleConsumer consumer = context.borrow(context.getLeader(topic, partition));
+      Chunk chunk;
+      try {
+        chunk = fetch(consumer);
+      } catch (RuntimeException e) {
+        context.invalidate(consumer);
+        throw e;
+      }
+      context.release(consumer);
+      if (handler == null) {
+        return chunk;
+      }
+      for (MessageAndOffset message : chunk.messages) {
+        handler.onMessage(message.message().payload(), message.offset());
+      }
+      read.addAndGet(chunk.messages.size());
+      return new Chunk(Collections.<MessageAndOffset> emptyList(), chunk.next, end);
+    }
+
+    private Chunk fetch(SimpleConsumer consumer) {
+      List<MessageAndOffset> messages = new ArrayList<MessageAndOffset>();
+      long maxBytes = (long) SLICE_FETCHES * fetchSize;
+      long bytes = 0;
+      long offset = start;
+      int size = fetchSize;
+      while (offset < end) {
+        if (bytes >= maxBytes) {
+          return new Chunk(messages, offset, end);
+        }
+        FetchResponse resp =
+            consumer.fetch(new FetchRequestBuilder().clientId(getClientName())
+                .addFetch(topic, partition, offset, size).build());
+        fetchRequests.incrementAndGet();
+        if (resp.hasError()) {
+          throw new IllegalStateException("Fetch of " + topic + "/" + partition + " at " + offset
+              + " failed with error " + resp.errorCode(topic, partition));
+        }
+        ByteBufferMessageSet messageSet = resp.messageSet(topic, partition);
+        if (messageSet.validBytes() == 0) {
+          if (messageSet.sizeInBytes() == 0) {
+            // the log ends before the slice, it was truncated since the scan started
+            return new Chunk(messages, end, end);
+          }
+          // the next message is bigger than the fetch size
+          size *= 2;
+          continue;
+        }
+        for (MessageAndOffset messageAndOffset : messageSet) {
+          // a compressed message set can start before the offset we asked for
+          if (messageAndOffset.offset() < offset) {
+            continue;
+          }
+          if (messageAndOffset.offset() >= end) {
+            return new Chunk(messages, end, end);
+          }
+          messages.add(messageAndOffset);
+          bytes += messageAndOffset.message().size();
+          offset = messageAndOffset.nextOffset();
+        }
+      }
+      return new Chunk(messages, end, end);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.Closeable;
+import java.util.Map;
+
+import kafka.common.TopicAndPartition;
+
+/**
+ * Where an {@link OffsetCheckpointer} keeps the offsets of its readers.
+ */
+public interface CheckpointStore extends Closeable {
+
+  /**
+   * Store the next offset to read of each partition.
+   */
+  void write(Map<TopicAndPartition, Long> offsets) throws Exception;
+
+  /**
+   * @return the offset stored for the partition, -1 if there is none
+   */
+  long read(String topic, int partition) throws Exception;
+}
@@ -0,0 +1,81 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.neverwinterdp.kafkaproducer.messagegenerator.DefaultMessageGenerator;
+import com.neverwinterdp.kafkaproducer.util.MessageEnvelope;
+
+/**
+ * The timestamps of the generated messages: the timestamp of a {@link MessageEnvelope}, or the
+ * trailing ", TIME:HH:mm:ss:SSSS" of a {@link DefaultMessageGenerator} message.
+ *
+ * The TIME field has no date. It is taken as the last such time of day, in the default time zone,
+ * that is not later than now, so it only orders messages written within the last day.
+ */
+public class DefaultTimestampExtractor implements TimestampExtractor {
+
+  private static final byte[] TIME = ", TIME:".getBytes(Charsets.UTF_8);
+  // HH:mm:ss:SSSS
+  private static final int TIME_LENGTH = 13;
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  // tolerate writer clocks a little ahead of ours
+  private static final long SKEW = TimeUnit.MINUTES.toMillis(1);
+
+  private final TimeZone timeZone;
+
+  public DefaultTimestampExtractor() {
+    this.timeZone = TimeZone.getDefault();
+  }
+
+  @Override
+  public long getTimestamp(ByteBuffer payload) {
+    if (MessageEnvelope.isEnvelope(payload)) {
+      return TimeUnit.NANOSECONDS.toMillis(MessageEnvelope.getTimestamp(payload));
+    }
+    int time = payload.limit() - TIME_LENGTH;
+    int field = time - TIME.length;
+    if (field < payload.position()) {
+      return -1;
+    }
+    for (int i = 0; i < TIME.length; i++) {
+      if (payload.get(field + i) != TIME[i]) {
+        return -1;
+      }
+    }
+    int hours = digits(payload, time, 2);
+    int minutes = digits(payload, time + 3, 2);
+    int seconds = digits(payload, time + 6, 2);
+    int millis = digits(payload, time + 9, 4);
+    if (hours < 0 || minutes < 0 || seconds < 0 || millis < 0) {
+      return -1;
+    }
+    return resolve(((hours * 60L + minutes) * 60 + seconds) * 1000 + millis,
+        System.currentTimeMillis());
+  }
+
+  /**
+   * @return the last time at or before now + SKEW whose local time of day is timeOfDay
+   */
+  long resolve(long timeOfDay, long now) {
+    long latest = now + SKEW;
+    long offset = timeZone.getOffset(latest);
+    long localDay = (latest + offset) / DAY * DAY;
+    long candidate = localDay + timeOfDay - offset;
+    return candidate > latest ? candidate - DAY : candidate;
+  }
+
+  private static int digits(ByteBuffer payload, int index, int count) {
+    int value = 0;
+    for (int i = index; i < index + count; i++) {
+      int digit = payload.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+}
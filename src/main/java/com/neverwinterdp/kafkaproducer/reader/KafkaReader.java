@@ -1,7 +1,9 @@
 package com.neverwinterdp.kafkaproducer.reader;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -12,12 +14,15 @@ import java.util.concurrent.Callable;
 import kafka.api.FetchRequest;
 import kafka.api.FetchRequestBuilder;
 import kafka.api.PartitionOffsetRequestInfo;
+import kafka.common.ErrorMapping;
 import kafka.common.TopicAndPartition;
 import kafka.javaapi.FetchResponse;
 import kafka.javaapi.OffsetRequest;
 import kafka.javaapi.OffsetResponse;
 import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.message.ByteBufferMessageSet;
 import kafka.message.MessageAndOffset;
+import kafka.message.MessageSet;
 
 import org.apache.log4j.Logger;
 
@@ -30,8 +35,19 @@ import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
 public class KafkaReader implements Callable<List<String>>, Closeable {
   private static final int BUFFER_SIZE = 64 * 1024;
   private static final int TIMEOUT = 10000;
+  public static final int DEFAULT_FETCH_SIZE = 100000;
+  public static final int DEFAULT_MIN_FETCH_SIZE = 16 * 1024;
+  public static final int DEFAULT_MAX_FETCH_SIZE = 4 * 1024 * 1024;
+  public static final long DEFAULT_FAILOVER_TIMEOUT = 30000;
+  private static final long FAILOVER_BACKOFF = 100;
+  private static final long FAILOVER_GRACE = 1000;
+  // a fetch of a few messages, for each step of a seek
+  private static final int SEEK_FETCH_SIZE = 4 * 1024;
   private static final Logger logger = Logger.getLogger(KafkaReader.class);
   private ZookeeperHelper helper;
+  // null if the reader owns its zookeeper session and consumer
+  private ReaderContext context;
+  private HostPort leader;
 
   private long currentOffset = 0;
   private SimpleConsumer consumer;
@@ -42,21 +58,78 @@ public class KafkaReader implements Callable<List<String>>, Closeable {
   private boolean hasNextOffset;
   private RetryStrategy retryStrategy;
   private long read;
+  private volatile boolean stopped;
+  // from the last fetch response, -1 until we know it
+  private long highWatermark;
+  // long poll settings of read(), 0/0 answers at once
+  private int maxWaitMs;
+  private int minBytes;
+  // bytes asked per fetch, adapted to what the responses return
+  private int fetchSize;
+  private int minFetchSize;
+  private int maxFetchSize;
+  // leader failover: when the failures in progress started, -1 if none, and how it went
+  private long failoverTimeout;
+  private long failureStart;
+  private int failovers;
+  private long lastRecoveryTime;
+  // null if the offsets are not committed
+  private OffsetCheckpointer checkpointer;
+  // the offset after the last read, reported once the caller is done with its messages
+  private long uncommittedOffset;
+  private int uncommittedMessages;
+  private TimestampExtractor timestampExtractor;
+  private long fetchRequests;
+
+  /**
+   * Receives the messages of {@link KafkaReader#stream(MessageHandler, int, int)} in offset order,
+   * on the streaming thread.
+   */
+  public interface MessageHandler {
+    void onMessage(String message, long offset);
+  }
 
   public KafkaReader(String zkURL, String topic, int partition) {
+    this(zkURL, null, topic, partition);
+  }
+
+  /**
+   * A reader that takes its leader from the context's metadata and borrows its consumer from the
+   * context's pool until it is closed.
+   */
+  public KafkaReader(ReaderContext context, String topic, int partition) {
+    this(context.getZkURL(), context, topic, partition);
+  }
+
+  private KafkaReader(String zkURL, ReaderContext context, String topic, int partition) {
     this.zkURL = zkURL;
+    this.context = context;
     this.topic = topic;
     this.partition = partition;
     hasNextOffset = false;
     read = 0;
+    highWatermark = -1;
+    fetchSize = DEFAULT_FETCH_SIZE;
+    minFetchSize = DEFAULT_MIN_FETCH_SIZE;
+    maxFetchSize = DEFAULT_MAX_FETCH_SIZE;
+    failoverTimeout = DEFAULT_FAILOVER_TIMEOUT;
+    failureStart = -1;
+    lastRecoveryTime = -1;
+    timestampExtractor = new DefaultTimestampExtractor();
     retryStrategy = new DefaultRetryStrategy(0, 0, null);
     initialize();
   }
 
   public void initialize() {
+    if (context != null) {
+      helper = context.getZookeeperHelper();
+      leader = context.getLeader(topic, partition);
+      consumer = context.borrow(leader);
+      firstRun = true;
+      return;
+    }
 
     helper = new ZookeeperHelper(zkURL);
-    HostPort leader = null;
     try {
       leader = helper.getLeaderForTopicAndPartition(topic, partition);
     } catch (Exception e) {
@@ -82,43 +155,83 @@ public class KafkaReader implements Callable<List<String>>, Closeable {
 
   // One offset many messages
   public List<String> read() {
-    // while running, read, if read.size==0 wait then read again
     List<String> messages = new LinkedList<String>();
+    for (ByteBuffer payload : fetchPayloads()) {
+      messages.add(decode(payload));
+    }
+    return messages;
+  }
+
+  /**
+   * As {@link #read()}, without copying or decoding the messages: the buffers are read-only views
+   * of the payloads in the fetch response. They stay valid after later reads.
+   */
+  public List<ByteBuffer> readPayloads() {
+    List<ByteBuffer> payloads = fetchPayloads();
+    for (int i = 0; i < payloads.size(); i++) {
+      payloads.set(i, payloads.get(i).asReadOnlyBuffer());
+    }
+    return payloads;
+  }
+
+  /**
+   * Decode a payload the way {@link #read()} does, with the platform charset.
+   */
+  public static String decode(ByteBuffer payload) {
+    if (payload.hasArray()) {
+      return new String(payload.array(), payload.arrayOffset() + payload.position(),
+          payload.remaining());
+    }
+    byte[] bytes = new byte[payload.remaining()];
+    payload.duplicate().get(bytes);
+    return new String(bytes);
+  }
+
+  private List<ByteBuffer> fetchPayloads() {
+    // while running, read, if read.size==0 wait then read again
+    List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
     do {
       read = 0;
+      // the caller is back for more, so it is done with the messages of the last read
+      commit();
       if (firstRun) {
-        currentOffset = getOffset(kafka.api.OffsetRequest.EarliestTime());
+        currentOffset = getStartOffset();
       }
       firstRun = false;
 
-      FetchRequest req =
-          new FetchRequestBuilder().clientId(getClientName())
-              .addFetch(topic, partition, currentOffset, 100000).build();
-
-      FetchResponse resp = consumer.fetch(req);
+      FetchResponse resp = fetchAdaptive(maxWaitMs, minBytes);
       if (resp.hasError()) {
-        System.out.println("Error! " + resp.errorCode(topic, partition));
+        short errorCode = resp.errorCode(topic, partition);
+        logger.warn("Fetch from " + this + " failed with error " + errorCode);
+        if (errorCode == ErrorMapping.OffsetOutOfRangeCode()) {
+          // e.g. a checkpoint of messages deleted since
+          currentOffset = getOffset(kafka.api.OffsetRequest.EarliestTime());
+        }
+      } else {
+        highWatermark = resp.highWatermark(topic, partition);
       }
-      byte[] bytes = null;
       long nextOffset = currentOffset;
       for (MessageAndOffset messageAndOffset : resp.messageSet(topic, partition)) {
         long messageOffset = messageAndOffset.offset();
         if (messageOffset < currentOffset) {
-          System.out
-              .println("Found an old offset: " + messageOffset + " Expecting: " + currentOffset);
+          // a compressed message set can start before the offset we asked for
+          if (logger.isDebugEnabled()) {
+            logger.debug("Found an old offset: " + messageOffset + " Expecting: " + currentOffset);
+          }
           continue;
         }
 
         ByteBuffer payload = messageAndOffset.message().payload();
-        bytes = new byte[payload.limit()];
-        payload.get(bytes);
-        messages.add(new String(bytes));
-        logger.info("current offset " + currentOffset + " " + messageAndOffset.offset() + ": "
-            + new String(bytes));
+        messages.add(payload);
+        if (logger.isDebugEnabled()) {
+          logger.debug("current offset " + currentOffset + " " + messageAndOffset.offset() + ": "
+              + decode(payload));
+        }
         nextOffset = messageAndOffset.nextOffset();
       }
       logger.info("currentOffset:" + currentOffset + " nextOffset:" + nextOffset);
-      if (currentOffset < nextOffset) {
+      // there is more if this fetch made progress but did not reach the high watermark
+      if (currentOffset < nextOffset && (highWatermark < 0 || nextOffset < highWatermark)) {
         hasNextOffset = true;
       } else {
         hasNextOffset = false;
@@ -126,56 +239,539 @@ public class KafkaReader implements Callable<List<String>>, Closeable {
       currentOffset = nextOffset;
 
       read = messages.size();
-     // System.err.println("messages " + messages);
+      if (read > 0) {
+        uncommittedOffset = currentOffset;
+        uncommittedMessages += read;
+      }
       if (read == 0) {
         try {
           retryStrategy.incrementRetryCount();
           retryStrategy.await();
         } catch (Exception e) {
-          e.printStackTrace();
+          logger.warn("Waiting to read " + this + " again failed", e);
         }
       }
       return messages;
     } while (retryStrategy.shouldRetry());
   }
 
+  /**
+   * Tail the partition from the current offset until {@link #stop()} is called, handing each
+   * message to the handler as soon as a fetch returns it.
+   *
+   * Every fetch long-polls the broker: it is held until minBytes of messages are available or
+   * maxWaitMs has passed. A small minBytes delivers each message with the latency of one round
+   * trip; a larger minBytes with a longer maxWaitMs trades latency for bigger, fewer fetches. An
+   * idle reader makes one request per maxWaitMs instead of sleeping and polling.
+   *
+   * @param maxWaitMs how long the broker may hold a fetch, below the socket timeout of 10s
+   * @param minBytes how many bytes of messages the broker waits for, at least 1
+   */
+  public void stream(MessageHandler handler, int maxWaitMs, int minBytes) {
+    checkMaxWait(maxWaitMs);
+    minBytes = Math.max(1, minBytes);
+    if (firstRun) {
+      currentOffset = getStartOffset();
+      firstRun = false;
+    }
+    while (!stopped) {
+      FetchResponse resp = fetchAdaptive(maxWaitMs, minBytes);
+      if (resp.hasError()) {
+        short errorCode = resp.errorCode(topic, partition);
+        logger.warn("Fetch from " + topic + "/" + partition + " failed with error " + errorCode);
+        if (errorCode == ErrorMapping.OffsetOutOfRangeCode()) {
+          currentOffset = getOffset(kafka.api.OffsetRequest.EarliestTime());
+        } else {
+          // the broker did not hold the request, do not spin on the error
+          try {
+            Thread.sleep(maxWaitMs);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+          }
+        }
+        continue;
+      }
+      highWatermark = resp.highWatermark(topic, partition);
+      int handled = 0;
+      for (MessageAndOffset messageAndOffset : resp.messageSet(topic, partition)) {
+        // a compressed message set can start before the offset we asked for
+        if (messageAndOffset.offset() < currentOffset) {
+          continue;
+        }
+        handler.onMessage(decode(messageAndOffset.message().payload()), messageAndOffset.offset());
+        currentOffset = messageAndOffset.nextOffset();
+        handled++;
+      }
+      if (checkpointer != null && handled > 0) {
+        checkpointer.update(topic, partition, currentOffset, handled);
+      }
+    }
+  }
+
+  /**
+   * Start at the offset committed by the checkpointer and report the offsets read to it. Takes
+   * effect if set before the first read.
+   *
+   * The delivery is at least once. {@link #stream(MessageHandler, int, int)} reports an offset once
+   * the handler returned for the messages before it; {@link #read()} and {@link #readPayloads()}
+   * report the offset after a read at the start of the next one, or on {@link #commit()}. Messages
+   * read but not yet reported when the process dies are read again. A reader used through a
+   * {@link PrefetchingReader} reports what was fetched, ahead of the caller.
+   */
+  public void setCheckpointer(OffsetCheckpointer checkpointer) {
+    this.checkpointer = checkpointer;
+  }
+
+  /**
+   * Report the offset after the last {@link #read()} to the checkpointer now, once its messages are
+   * processed, rather than at the start of the next read. Closing the reader does not report it.
+   */
+  public void commit() {
+    if (checkpointer != null && uncommittedMessages > 0) {
+      checkpointer.update(topic, partition, uncommittedOffset, uncommittedMessages);
+      uncommittedMessages = 0;
+    }
+  }
+
+  /**
+   * @return the offset committed for this partition if there is one, else the earliest offset
+   */
+  private long getStartOffset() {
+    if (checkpointer != null) {
+      try {
+        long committed = checkpointer.getCommitted(topic, partition);
+        if (committed >= 0) {
+          logger.info("Reading " + this + " from the checkpoint at " + committed);
+          return committed;
+        }
+      } catch (Exception e) {
+        logger.warn("Failed to read the checkpoint of " + this + ", reading from the start", e);
+      }
+    }
+    return getOffset(kafka.api.OffsetRequest.EarliestTime());
+  }
+
+  /**
+   * Make {@link #stream(MessageHandler, int, int)} return after the fetch in progress. A stop
+   * that lands before the stream starts still counts: a stopped reader does not stream again.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Let each {@link #read()} wait on the broker for up to maxWaitMs until minBytes are available,
+   * as {@link #stream(MessageHandler, int, int)} does. By default a read returns at once.
+   */
+  public void setFetchWait(int maxWaitMs, int minBytes) {
+    checkMaxWait(maxWaitMs);
+    this.maxWaitMs = maxWaitMs;
+    this.minBytes = minBytes;
+  }
+
+  private void checkMaxWait(int maxWaitMs) {
+    if (maxWaitMs <= 0 || maxWaitMs >= TIMEOUT) {
+      throw new IllegalArgumentException("maxWaitMs must be between 0 and " + TIMEOUT + " "
+          + maxWaitMs);
+    }
+  }
+
+  /**
+   * Bound the bytes asked per fetch. The fetch size doubles, up to maxFetchSize, while responses
+   * come back nearly full or end in a truncated message, and halves, down to minFetchSize, while
+   * they are mostly empty. A message larger than maxFetchSize is still read, with a fetch of its
+   * size. minFetchSize has to hold at least the offset and size of a message.
+   */
+  public void setFetchSizeLimits(int minFetchSize, int maxFetchSize) {
+    if (minFetchSize < MessageSet.LogOverhead() || minFetchSize > maxFetchSize) {
+      throw new IllegalArgumentException("Invalid fetch size limits " + minFetchSize + " "
+          + maxFetchSize);
+    }
+    this.minFetchSize = minFetchSize;
+    this.maxFetchSize = maxFetchSize;
+    fetchSize = Math.min(maxFetchSize, Math.max(minFetchSize, fetchSize));
+  }
+
+  /**
+   * @return the bytes the next fetch asks for
+   */
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * Fetch and adapt the fetch size to the response. A response holding nothing but the start of a
+   * message too big for the fetch size is fetched again with room for it, the broker would return
+   * the same truncated message forever otherwise.
+   *
+   * @throws IllegalStateException if the message size in the entry header is corrupt, or a fetch
+   *           of that size still returns it truncated
+   */
+  private FetchResponse fetchAdaptive(int maxWaitMs, int minBytes) {
+    while (true) {
+      FetchResponse resp = fetch(fetchRequest(maxWaitMs, minBytes));
+      if (resp.hasError() || !adaptFetchSize(resp.messageSet(topic, partition))) {
+        return resp;
+      }
+    }
+  }
+
+  /**
+   * @return true if the message set is a truncated first message and has to be fetched again with
+   *         a bigger fetch size
+   */
+  private boolean adaptFetchSize(ByteBufferMessageSet messageSet) {
+    int size = messageSet.sizeInBytes();
+    int valid = messageSet.validBytes();
+    if (size > 0 && valid == 0) {
+      // each entry is the offset, 8 bytes, the message size, 4 bytes, and the message
+      ByteBuffer buffer = messageSet.getBuffer();
+      int needed = fetchSize * 2;
+      if (size >= MessageSet.LogOverhead()) {
+        needed =
+            MessageSet.LogOverhead()
+                + buffer.getInt(buffer.position() + MessageSet.LogOverhead() - 4);
+      }
+      int previous = fetchSize;
+      int next = Math.max(needed, Math.min(maxFetchSize, fetchSize * 2));
+      if (needed <= MessageSet.LogOverhead() || next <= previous) {
+        // refetching would return the same truncated entry forever
+        fetchSize = maxFetchSize;
+        throw new IllegalStateException("Message at " + currentOffset + " in " + this
+            + " is still truncated in a fetch of " + previous + " bytes, its entry claims "
+            + needed + " bytes");
+      }
+      if (needed > maxFetchSize) {
+        logger.warn("Message at " + currentOffset + " in " + this + " is " + needed
+            + " bytes, over the maximum fetch size of " + maxFetchSize);
+      }
+      fetchSize = next;
+      return true;
+    }
+    if (size > valid || valid >= fetchSize / 4 * 3) {
+      // full, or bigger than the maximum after an oversized message
+      fetchSize = Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize * 2));
+    } else if (valid < fetchSize / 4) {
+      // tailing
+      fetchSize = Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize / 2));
+    }
+    return false;
+  }
+
+  /**
+   * Fetch from the leader, following the partition to its new leader when the broker is gone or
+   * says it no longer leads. The request is sent again unchanged, so the reader resumes at the same
+   * offset.
+   */
+  private FetchResponse fetch(FetchRequest request) {
+    while (true) {
+      FetchResponse resp;
+      try {
+        resp = consumer.fetch(request);
+        fetchRequests++;
+      } catch (Exception e) {
+        failover("Fetch from " + leader + " failed: " + e);
+        continue;
+      }
+      if (resp.hasError() && isLeaderError(resp.errorCode(topic, partition))) {
+        failover("Fetch from " + leader + " failed with error " + resp.errorCode(topic, partition));
+        continue;
+      }
+      recovered();
+      return resp;
+    }
+  }
+
+  private static boolean isLeaderError(short errorCode) {
+    return errorCode == ErrorMapping.NotLeaderForPartitionCode()
+        || errorCode == ErrorMapping.LeaderNotAvailableCode()
+        || errorCode == ErrorMapping.UnknownTopicOrPartitionCode();
+  }
+
+  /**
+   * Drop the connection to the leader and connect to the leader zookeeper knows now. While the
+   * partition has no leader, or zookeeper still names the failed one, wait a little first: the
+   * same leader is only taken back once it has kept it for FAILOVER_GRACE, the connection broke
+   * rather than the broker.
+   *
+   * @throws IllegalStateException if the failures go on for longer than the failover timeout
+   */
+  private void failover(String reason) {
+    if (failureStart < 0) {
+      failureStart = System.currentTimeMillis();
+      logger.warn(reason + ", looking for the new leader of " + this);
+    }
+    // a failed connection may be broken, do not hand it to other readers
+    if (context != null) {
+      context.invalidate(consumer);
+    } else {
+      consumer.close();
+    }
+    HostPort next = lookupLeader();
+    while (next == null || next.equals(leader)) {
+      long failing = System.currentTimeMillis() - failureStart;
+      if (failing > failoverTimeout) {
+        throw new IllegalStateException("No leader for " + this + " after " + failoverTimeout
+            + " ms: " + reason);
+      }
+      try {
+        Thread.sleep(FAILOVER_BACKOFF);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted looking for the leader of " + this);
+      }
+      next = lookupLeader();
+      if (next != null && failing >= FAILOVER_GRACE) {
+        break;
+      }
+    }
+    if (!next.equals(leader)) {
+      logger.info("Leader of " + this + " moved from " + leader + " to " + next);
+    }
+    leader = next;
+    if (context != null) {
+      consumer = context.borrow(leader);
+    } else {
+      consumer =
+          new SimpleConsumer(leader.getHost(), leader.getPort(), TIMEOUT, BUFFER_SIZE,
+              getClientName());
+    }
+  }
+
+  private HostPort lookupLeader() {
+    try {
+      return helper.getLeaderForTopicAndPartition(topic, partition);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private void recovered() {
+    if (failureStart >= 0) {
+      lastRecoveryTime = System.currentTimeMillis() - failureStart;
+      failovers++;
+      failureStart = -1;
+      logger.info("Reading " + this + " from " + leader + " at " + currentOffset + " again after "
+          + lastRecoveryTime + " ms");
+    }
+  }
+
+  /**
+   * How long to keep looking for a leader before a read fails, 30s by default.
+   */
+  public void setFailoverTimeout(long failoverTimeout) {
+    this.failoverTimeout = failoverTimeout;
+  }
+
+  /**
+   * @return the number of times the reader recovered from a failed or moved leader
+   */
+  public int getFailovers() {
+    return failovers;
+  }
+
+  /**
+   * @return how long the last recovery took, from the first failure to the first successful request
+   *         to the new leader, in ms. -1 if there was none.
+   */
+  public long getLastRecoveryTime() {
+    return lastRecoveryTime;
+  }
+
+  private FetchRequest fetchRequest(int maxWaitMs, int minBytes) {
+    return new FetchRequestBuilder().clientId(getClientName())
+        .addFetch(topic, partition, currentOffset, fetchSize).maxWait(maxWaitMs)
+        .minBytes(minBytes).build();
+  }
+
   /**
    * Return true if for the topic/partition we have an offset > currentOffset
+   *
+   * Answered from the high watermark of the last fetch while we are behind it. Only once we reached
+   * it, and it may be stale, is the latest offset asked from the broker.
    */
   public boolean hasNext() {
-    return retryStrategy.shouldRetry() || hasNextOffset
-        || currentOffset < getOffset(kafka.api.OffsetRequest.LatestTime());
+    if (retryStrategy.shouldRetry() || hasNextOffset || currentOffset < highWatermark) {
+      return true;
+    }
+    highWatermark = getOffset(kafka.api.OffsetRequest.LatestTime());
+    return currentOffset < highWatermark;
   }
 
+  /**
+   * @return the offset after the last committed message as of the last fetch or offset request, -1
+   *         before the first one
+   */
+  public long getHighWatermark() {
+    return highWatermark;
+  }
+
+
+  /**
+   * Move the reader to the first message written at or after time, in ms since the epoch, as told
+   * by the {@link TimestampExtractor}.
+   *
+   * The broker narrows the range first: getOffsetsBefore(time) lists the first offsets of the
+   * segments last written before time, which are older throughout, so the search starts at the
+   * segment after the last of them. The rest is a binary search on the message timestamps, one
+   * small fetch per step, where every message of a fetch narrows the range. A message without a
+   * timestamp counts as older.
+   *
+   * @return the offset the next read starts at, the log end if every message is older
+   */
+  public long seekToTime(long time) {
+    long low = getOffset(kafka.api.OffsetRequest.EarliestTime());
+    // the first offset of every segment, and the log end, latest first
+    long[] segments = getOffsets(kafka.api.OffsetRequest.LatestTime(), Integer.MAX_VALUE);
+    long high = segments[0];
+    long[] older = getOffsets(time, Integer.MAX_VALUE);
+    if (older.length > 0) {
+      long next = high;
+      for (long segment : segments) {
+        if (segment > older[0] && segment < next) {
+          next = segment;
+        }
+      }
+      low = Math.max(low, next);
+    }
+    int steps = 0;
+    while (low < high) {
+      long middle = low + (high - low) / 2;
+      List<MessageAndOffset> messages = fetchAt(middle, high);
+      if (messages.isEmpty()) {
+        high = middle;
+      }
+      for (MessageAndOffset messageAndOffset : messages) {
+        if (timestampExtractor.getTimestamp(messageAndOffset.message().payload()) >= time) {
+          high = messageAndOffset.offset();
+          break;
+        }
+        low = messageAndOffset.nextOffset();
+      }
+      steps++;
+    }
+    logger.info("Seeked " + this + " to " + low + " for time " + time + " in " + steps
+        + " fetches");
+    currentOffset = low;
+    firstRun = false;
+    hasNextOffset = false;
+    highWatermark = segments[0];
+    return low;
+  }
+
+  /**
+   * @return the messages from offset to before end of one small fetch
+   */
+  private List<MessageAndOffset> fetchAt(long offset, long end) {
+    int size = SEEK_FETCH_SIZE;
+    while (true) {
+      FetchResponse resp =
+          fetch(new FetchRequestBuilder().clientId(getClientName())
+              .addFetch(topic, partition, offset, size).build());
+      if (resp.hasError()) {
+        throw new IllegalStateException("Fetch from " + this + " at " + offset
+            + " failed with error " + resp.errorCode(topic, partition));
+      }
+      ByteBufferMessageSet messageSet = resp.messageSet(topic, partition);
+      if (messageSet.sizeInBytes() > 0 && messageSet.validBytes() == 0) {
+        // the message at offset is bigger than the fetch
+        size *= 2;
+        continue;
+      }
+      List<MessageAndOffset> messages = new ArrayList<MessageAndOffset>();
+      for (MessageAndOffset messageAndOffset : messageSet) {
+        if (messageAndOffset.offset() >= end) {
+          break;
+        }
+        if (messageAndOffset.offset() >= offset) {
+          messages.add(messageAndOffset);
+        }
+      }
+      return messages;
+    }
+  }
+
+  /**
+   * Read message timestamps with this extractor in {@link #seekToTime(long)}, by default a
+   * {@link DefaultTimestampExtractor}.
+   */
+  public void setTimestampExtractor(TimestampExtractor timestampExtractor) {
+    this.timestampExtractor = timestampExtractor;
+  }
+
+  /**
+   * @return the number of fetch requests sent so far
+   */
+  public long getFetchRequests() {
+    return fetchRequests;
+  }
 
   /**
    * To get Earliest offset ask for kafka.api.OffsetRequest.EarliestTime(). To get latest offset ask
    * for kafka.api.OffsetRequest.LatestTime()
    */
   private long getOffset(long time) {
+    return getOffsets(time, 1)[0];
+  }
+
+  /**
+   * @return up to maxNumOffsets offsets before time, latest first: the first offsets of the log
+   *         segments last written before time, and the log end for LatestTime()
+   */
+  private long[] getOffsets(long time, int maxNumOffsets) {
     Map<TopicAndPartition, PartitionOffsetRequestInfo> offsetInfo =
         new HashMap<TopicAndPartition, PartitionOffsetRequestInfo>();
-    offsetInfo
-        .put(new TopicAndPartition(topic, partition), new PartitionOffsetRequestInfo(time, 1));
-    OffsetResponse response =
-        consumer.getOffsetsBefore(new OffsetRequest(offsetInfo, kafka.api.OffsetRequest
-            .CurrentVersion(), getClientName()));
+    offsetInfo.put(new TopicAndPartition(topic, partition), new PartitionOffsetRequestInfo(time,
+        maxNumOffsets));
+    OffsetResponse response;
+    while (true) {
+      try {
+        response =
+            consumer.getOffsetsBefore(new OffsetRequest(offsetInfo, kafka.api.OffsetRequest
+                .CurrentVersion(), getClientName()));
+      } catch (Exception e) {
+        failover("Offset request to " + leader + " failed: " + e);
+        continue;
+      }
+      if (response.hasError() && isLeaderError(response.errorCode(topic, partition))) {
+        failover("Offset request to " + leader + " failed with error "
+            + response.errorCode(topic, partition));
+        continue;
+      }
+      recovered();
+      break;
+    }
     long[] endOffset = response.offsets(topic, partition);
     logger.info("endoffsets:" + Arrays.toString(endOffset) + " TIME:" + time);
        
-    return endOffset[0];
+    return endOffset;
   }
 
   private String getClientName() {
     return topic + "_" + partition;
   }
 
+  @Override
+  public String toString() {
+    return topic + "/" + partition;
+  }
+
   public void setRetryStrategy(DefaultRetryStrategy retryStrategy) {
     this.retryStrategy = retryStrategy;
   }
 
   @Override
   public void close() {
+    if (context != null) {
+      context.release(consumer);
+      return;
+    }
     consumer.close();
+    try {
+      helper.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close the zookeeper helper", e);
+    }
   }
 }
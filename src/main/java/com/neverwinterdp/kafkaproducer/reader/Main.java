@@ -1,8 +1,289 @@
 package com.neverwinterdp.kafkaproducer.reader;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.PropertyUtils;
+import com.neverwinterdp.kafkaproducer.util.TopicMetadataCache;
+
+/**
+ * Reads every partition of a topic until stopped.
+ *
+ * One KafkaReader per partition, run on a fixed pool of reader threads: each task does one long
+ * polling read and queues itself again, so any number of partitions share the pool fairly. Readers
+ * are started and stopped as the topic's partitions change, and the total throughput is logged
+ * every report interval. With a group, the offsets are checkpointed to zookeeper, or to a local
+ * checkpoint file if one is given, and a restarted daemon carries on where the group left off.
+ */
 public class Main {
-  public static void main(String[] args) {
-    // for a given topic, get all partitions, start a reader for all partitions
-    // dynamically react to change of partitions: start or stop readers.
+
+  private static final Logger logger = Logger.getLogger(Main.class);
+  private static final int CHECKPOINT_MESSAGES = 10000;
+  private static final long CHECKPOINT_INTERVAL = 1000;
+  private static final int CHECKPOINT_SLOTS = 4096;
+  private String zkURL;
+  private String topic;
+  private int readerThreads;
+  private int fetchWait;
+  private long reportInterval;
+  private String group;
+  private File checkpointFile;
+
+  // one zookeeper session and the consumer connections of all the readers
+  private ReaderContext context;
+  private OffsetCheckpointer checkpointer;
+  private TopicMetadataCache metadata;
+  private TopicMetadataCache.Listener listener;
+  private ExecutorService readerPool;
+  // runs the partition updates and the reports, off the zookeeper event thread
+  private ScheduledExecutorService control;
+  private final Map<Integer, PartitionReader> readers = new HashMap<>();
+  private final AtomicLong messages = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private volatile boolean running;
+
+  public static void main(String[] args) throws Exception {
+    BasicConfigurator.configure();
+    Properties props = PropertyUtils.getPropertyFile("kafkaproducer.properties");
+    final Main daemon =
+        new Main(props.getProperty("zookeeper"), props.getProperty("topic"),
+            Integer.parseInt(props.getProperty("reader-threads", "4")),
+            Integer.parseInt(props.getProperty("fetch-wait", "500")),
+            Long.parseLong(props.getProperty("report-interval", "10")));
+    daemon.setGroup(props.getProperty("group"));
+    if (props.getProperty("checkpoint-file") != null) {
+      daemon.setCheckpointFile(new File(props.getProperty("checkpoint-file")));
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        daemon.stop();
+      }
+    });
+    daemon.start();
+  }
+
+  Main(String zkURL, String topic, int readerThreads, int fetchWait, long reportInterval) {
+    this.zkURL = zkURL;
+    this.topic = topic;
+    this.readerThreads = readerThreads;
+    this.fetchWait = fetchWait;
+    this.reportInterval = reportInterval;
+  }
+
+  /**
+   * Checkpoint the offsets as this consumer group, null to always read from the start.
+   */
+  void setGroup(String group) {
+    this.group = group;
+  }
+
+  /**
+   * Checkpoint to this memory-mapped file rather than to zookeeper. The offsets are read back from
+   * it, the group is ignored.
+   */
+  void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  void start() throws Exception {
+    logger.info("Reading " + topic + " with " + readerThreads + " threads");
+    running = true;
+    context = new ReaderContext(zkURL);
+    if (checkpointFile != null) {
+      // writes are cheap, commit after every read
+      checkpointer =
+          new OffsetCheckpointer(new MappedCheckpointStore(checkpointFile, CHECKPOINT_SLOTS,
+              CHECKPOINT_INTERVAL), 1, CHECKPOINT_INTERVAL);
+    } else if (group != null) {
+      checkpointer =
+          new OffsetCheckpointer(context.getZookeeperHelper(), group, CHECKPOINT_MESSAGES,
+              CHECKPOINT_INTERVAL);
+    }
+    readerPool = Executors.newFixedThreadPool(readerThreads);
+    control = Executors.newSingleThreadScheduledExecutor();
+    metadata = context.getZookeeperHelper().getTopicMetadataCache(topic);
+    listener = new TopicMetadataCache.Listener() {
+      @Override
+      public void metadataChanged(TopicMetadataCache cache) {
+        scheduleUpdate();
+      }
+    };
+    metadata.addListener(listener);
+    scheduleUpdate();
+    control.scheduleAtFixedRate(new Runnable() {
+      long lastMessages;
+      long lastBytes;
+
+      @Override
+      public void run() {
+        long currentMessages = messages.get();
+        long currentBytes = bytes.get();
+        logger.info(String.format("%d partitions, %.1f msg/s, %.3f MB/s, %d messages in total",
+            getReaderCount(), (double) (currentMessages - lastMessages) / reportInterval,
+            (double) (currentBytes - lastBytes) / reportInterval / (1024 * 1024), currentMessages));
+        lastMessages = currentMessages;
+        lastBytes = currentBytes;
+      }
+    }, reportInterval, reportInterval, TimeUnit.SECONDS);
+  }
+
+  private void scheduleUpdate() {
+    try {
+      control.execute(new Runnable() {
+        @Override
+        public void run() {
+          updateReaders();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // stopping
+    }
+  }
+
+  /**
+   * Start a reader for every partition that has a leader and none yet, stop the readers of
+   * partitions that are gone.
+   */
+  private synchronized void updateReaders() {
+    if (!running) {
+      return;
+    }
+    Set<Integer> partitions = metadata.getPartitions();
+    for (Integer partition : partitions) {
+      if (readers.containsKey(partition) || metadata.getLeader(partition) == null) {
+        continue;
+      }
+      try {
+        KafkaReader reader = new KafkaReader(context, topic, partition);
+        reader.setFetchWait(fetchWait, 1);
+        reader.setCheckpointer(checkpointer);
+        PartitionReader task = new PartitionReader(partition, reader);
+        readers.put(partition, task);
+        readerPool.execute(task);
+        logger.info("Started reader for " + topic + "/" + partition);
+      } catch (IllegalArgumentException e) {
+        // no leader yet, the next metadata change brings us back
+        logger.warn("Cannot read " + topic + "/" + partition + " yet: " + e.getMessage());
+      }
+    }
+    for (Integer partition : new HashSet<>(readers.keySet())) {
+      if (!partitions.contains(partition)) {
+        readers.remove(partition).active = false;
+        logger.info("Stopped reader for " + topic + "/" + partition);
+      }
+    }
+  }
+
+  synchronized int getReaderCount() {
+    return readers.size();
+  }
+
+  long getMessagesRead() {
+    return messages.get();
+  }
+
+  /**
+   * @return the messages read from the partition by its current reader, 0 if it has none
+   */
+  synchronized long getMessagesRead(int partition) {
+    PartitionReader reader = readers.get(partition);
+    return reader == null ? 0 : reader.read.get();
+  }
+
+  void stop() {
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      for (PartitionReader reader : readers.values()) {
+        reader.active = false;
+      }
+    }
+    metadata.removeListener(listener);
+    control.shutdownNow();
+    readerPool.shutdown();
+    try {
+      readerPool.awaitTermination(fetchWait * 2 + 10000, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      readers.clear();
+    }
+    if (checkpointer != null) {
+      checkpointer.close();
+    }
+    try {
+      context.close();
+    } catch (Exception e) {
+      logger.warn("Failed to close the reader context", e);
+    }
+    logger.info("Read " + messages.get() + " messages, " + bytes.get() + " bytes");
+  }
+
+  /**
+   * Reads once per run and queues itself again; closes its reader once it is no longer active or the
+   * pool is shut down.
+   */
+  private class PartitionReader implements Runnable {
+    final int partition;
+    final KafkaReader reader;
+    final AtomicLong read = new AtomicLong();
+    volatile boolean active = true;
+
+    PartitionReader(int partition, KafkaReader reader) {
+      this.partition = partition;
+      this.reader = reader;
+    }
+
+    @Override
+    public void run() {
+      if (!active) {
+        reader.close();
+        return;
+      }
+      try {
+        List<ByteBuffer> payloads = reader.readPayloads();
+        long size = 0;
+        for (ByteBuffer payload : payloads) {
+          size += payload.remaining();
+        }
+        read.addAndGet(payloads.size());
+        messages.addAndGet(payloads.size());
+        bytes.addAndGet(size);
+        reader.commit();
+      } catch (Exception e) {
+        logger.warn("Read from " + topic + "/" + partition + " failed", e);
+        // do not spin on a partition that keeps failing
+        try {
+          Thread.sleep(fetchWait);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      try {
+        readerPool.execute(this);
+      } catch (RejectedExecutionException e) {
+        // stopping
+        reader.close();
+      }
+    }
   }
 }
@@ -0,0 +1,286 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import kafka.common.TopicAndPartition;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Keeps the offsets in a local memory-mapped file, for readers that checkpoint too often for
+ * zookeeper. A write is a few stores into the page cache; the file is forced to disk every flush
+ * interval and on close.
+ *
+ * Every topic/partition gets a fixed slot the first time it is written:
+ *
+ * <pre>
+ * header    64 bytes: magic, version, number of slots
+ * slot     320 bytes:
+ *   0        key: partition (4), topic length (2), topic (up to 255 bytes of UTF-8)
+ *   264      key CRC32 (4)
+ *   272      record 0: sequence (8), offset (8), CRC32 of both (4), padding (4)
+ *   296      record 1: the same
+ * </pre>
+ *
+ * An offset is written over the older of the two records, with the next sequence number. A write
+ * torn by a crash leaves a record whose CRC does not match; it is ignored and the other record,
+ * the previous offset, is read instead.
+ *
+ * The file does not grow: once every slot is taken, the offsets of further partitions are dropped
+ * with a warning, logged once per partition, and read back as -1.
+ */
+public class MappedCheckpointStore implements CheckpointStore {
+  private static final Logger logger = Logger.getLogger(MappedCheckpointStore.class);
+
+  static final int MAGIC = 0x4b434b50;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int SLOT_SIZE = 320;
+  static final int MAX_TOPIC_LENGTH = 255;
+  static final int KEY_CRC = 264;
+  static final int RECORD = 272;
+  static final int RECORD_SIZE = 24;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final MappedByteBuffer buffer;
+  private final int slots;
+  private final Map<TopicAndPartition, Integer> index;
+  // partitions without a slot, already warned about
+  private final Set<TopicAndPartition> dropped;
+  private final ScheduledExecutorService flusher;
+  private final CRC32 crc;
+  private int used;
+  private boolean dirty;
+
+  /**
+   * Open the file, or create it with room for slots partitions.
+   */
+  public MappedCheckpointStore(File file, int slots, long flushIntervalMs) throws IOException {
+    this.file = file;
+    this.raf = new RandomAccessFile(file, "rw");
+    this.crc = new CRC32();
+    this.index = new HashMap<TopicAndPartition, Integer>();
+    this.dropped = new HashSet<TopicAndPartition>();
+    try {
+      boolean created = raf.length() == 0;
+      if (!created) {
+        raf.seek(0);
+        if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+          throw new IOException(file + " is not a checkpoint file");
+        }
+        // the file keeps the size it was created with
+        slots = raf.readInt();
+      }
+      this.slots = slots;
+      long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+      raf.setLength(size);
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (created) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slots);
+        buffer.force();
+      }
+      loadIndex();
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+    this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread =
+            new Thread(runnable, "checkpoint-flush-" + MappedCheckpointStore.this.file);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void loadIndex() {
+    for (int slot = 0; slot < slots; slot++) {
+      int base = HEADER_SIZE + slot * SLOT_SIZE;
+      int length = buffer.getShort(base + 4);
+      if (length <= 0 || length > MAX_TOPIC_LENGTH) {
+        continue;
+      }
+      byte[] topic = new byte[length];
+      for (int i = 0; i < length; i++) {
+        topic[i] = buffer.get(base + 6 + i);
+      }
+      int partition = buffer.getInt(base);
+      if (keyCrc(partition, topic) != buffer.getInt(base + KEY_CRC)) {
+        logger.warn("Ignoring the torn slot " + slot + " of " + file);
+        continue;
+      }
+      index.put(new TopicAndPartition(new String(topic, Charsets.UTF_8), partition), slot);
+      used = slot + 1;
+    }
+  }
+
+  @Override
+  public synchronized void write(Map<TopicAndPartition, Long> offsets) {
+    // take the slots first, a bad key fails the write before any offset is written
+    List<Entry<TopicAndPartition, Long>> stored =
+        new ArrayList<Entry<TopicAndPartition, Long>>(offsets.size());
+    List<Integer> storedSlots = new ArrayList<Integer>(offsets.size());
+    for (Entry<TopicAndPartition, Long> entry : offsets.entrySet()) {
+      int slot = slot(entry.getKey());
+      if (slot < 0) {
+        if (dropped.add(entry.getKey())) {
+          logger.warn("No free slot for " + entry.getKey() + " in " + file + ", all " + slots
+              + " are used, its offsets are not stored");
+        }
+        continue;
+      }
+      stored.add(entry);
+      storedSlots.add(slot);
+    }
+    for (int i = 0; i < stored.size(); i++) {
+      Entry<TopicAndPartition, Long> entry = stored.get(i);
+      int base = HEADER_SIZE + storedSlots.get(i) * SLOT_SIZE;
+      int newest = newestRecord(base);
+      long sequence = newest < 0 ? 0 : buffer.getLong(base + RECORD + newest * RECORD_SIZE);
+      // overwrite the other one, the newest stays valid until this one is complete
+      int record = base + RECORD + (newest == 0 ? 1 : 0) * RECORD_SIZE;
+      long offset = entry.getValue();
+      buffer.putLong(record, sequence + 1);
+      buffer.putLong(record + 8, offset);
+      buffer.putInt(record + 16, recordCrc(sequence + 1, offset));
+    }
+    dirty = true;
+  }
+
+  @Override
+  public synchronized long read(String topic, int partition) {
+    Integer slot = index.get(new TopicAndPartition(topic, partition));
+    if (slot == null) {
+      return -1;
+    }
+    int base = HEADER_SIZE + slot * SLOT_SIZE;
+    int newest = newestRecord(base);
+    return newest < 0 ? -1 : buffer.getLong(base + RECORD + newest * RECORD_SIZE + 8);
+  }
+
+  /**
+   * @return the number of the valid record with the highest sequence, -1 if neither is valid
+   */
+  private int newestRecord(int base) {
+    int newest = -1;
+    long newestSequence = 0;
+    for (int i = 0; i < 2; i++) {
+      int record = base + RECORD + i * RECORD_SIZE;
+      long sequence = buffer.getLong(record);
+      long offset = buffer.getLong(record + 8);
+      if (sequence > newestSequence && buffer.getInt(record + 16) == recordCrc(sequence, offset)) {
+        newest = i;
+        newestSequence = sequence;
+      }
+    }
+    return newest;
+  }
+
+  /**
+   * @return the slot of the partition, taken now if it has none, -1 if all slots are used
+   */
+  private int slot(TopicAndPartition topicAndPartition) {
+    Integer slot = index.get(topicAndPartition);
+    if (slot != null) {
+      return slot;
+    }
+    byte[] topic = topicAndPartition.topic().getBytes(Charsets.UTF_8);
+    if (topic.length > MAX_TOPIC_LENGTH) {
+      throw new IllegalArgumentException("Topic name too long " + topicAndPartition.topic());
+    }
+    if (used == slots) {
+      return -1;
+    }
+    int base = HEADER_SIZE + used * SLOT_SIZE;
+    // a slot torn while it was taken may hold records of another partition
+    for (int i = RECORD; i < SLOT_SIZE; i += 8) {
+      buffer.putLong(base + i, 0);
+    }
+    buffer.putInt(base, topicAndPartition.partition());
+    buffer.putShort(base + 4, (short) topic.length);
+    for (int i = 0; i < topic.length; i++) {
+      buffer.put(base + 6 + i, topic[i]);
+    }
+    buffer.putInt(base + KEY_CRC, keyCrc(topicAndPartition.partition(), topic));
+    index.put(topicAndPartition, used);
+    return used++;
+  }
+
+  private int keyCrc(int partition, byte[] topic) {
+    crc.reset();
+    updateCrc(partition, 4);
+    crc.update(topic);
+    return (int) crc.getValue();
+  }
+
+  private int recordCrc(long sequence, long offset) {
+    crc.reset();
+    updateCrc(sequence, 8);
+    updateCrc(offset, 8);
+    return (int) crc.getValue();
+  }
+
+  private void updateCrc(long value, int bytes) {
+    for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+      crc.update((int) (value >>> shift) & 0xff);
+    }
+  }
+
+  /**
+   * Force the offsets written since the last flush to disk. Runs every flush interval.
+   */
+  public synchronized void flush() {
+    if (dirty) {
+      buffer.force();
+      dirty = false;
+    }
+  }
+
+  /**
+   * @return the number of slots in use
+   */
+  public synchronized int getUsedSlots() {
+    return used;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flusher.shutdown();
+    flush();
+    raf.close();
+  }
+
+  @Override
+  public String toString() {
+    return "file:" + file;
+  }
+}
@@ -0,0 +1,286 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import kafka.api.FetchRequestBuilder;
+import kafka.api.PartitionOffsetRequestInfo;
+import kafka.common.ErrorMapping;
+import kafka.common.TopicAndPartition;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.OffsetRequest;
+import kafka.javaapi.OffsetResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.message.MessageAndOffset;
+
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.TopicMetadataCache;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Reads many partitions of a topic with one FetchRequest per broker instead of one per partition.
+ *
+ * The partitions are grouped by their current leader, taken from the topic's
+ * {@link TopicMetadataCache} on every read, so a moved leader is followed on the next read. There is
+ * one SimpleConsumer per leader broker; consumers of brokers that lead none of our partitions any
+ * more are closed. Each read returns the new messages of every partition, split back out of the
+ * broker responses.
+ */
+public class MultiPartitionReader implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int TIMEOUT = 10000;
+  private static final int FETCH_SIZE = 100000;
+  private static final Logger logger = Logger.getLogger(MultiPartitionReader.class);
+
+  private String topic;
+  private ZookeeperHelper helper;
+  private TopicMetadataCache metadata;
+  private Collection<Integer> partitions;
+  private Map<HostPort, SimpleConsumer> consumers;
+  // next offset to fetch and high watermark of each partition, -1 until known
+  private Map<Integer, Long> offsets;
+  private Map<Integer, Long> highWatermarks;
+  private int maxWaitMs;
+  private int minBytes;
+  private long fetchRequests;
+
+  /**
+   * Read all the partitions the topic has now.
+   */
+  public MultiPartitionReader(String zkURL, String topic) throws Exception {
+    this(zkURL, topic, null);
+  }
+
+  public MultiPartitionReader(String zkURL, String topic, Collection<Integer> partitions)
+      throws Exception {
+    this.topic = topic;
+    this.helper = new ZookeeperHelper(zkURL);
+    this.metadata = helper.getTopicMetadataCache(topic);
+    if (partitions == null) {
+      partitions = metadata.getPartitions();
+    }
+    if (partitions.isEmpty()) {
+      helper.close();
+      throw new IllegalArgumentException("Topic " + topic + " has no partitions");
+    }
+    this.partitions = new TreeSet<Integer>(partitions);
+    this.consumers = new HashMap<HostPort, SimpleConsumer>();
+    this.offsets = new HashMap<Integer, Long>();
+    this.highWatermarks = new HashMap<Integer, Long>();
+    for (Integer partition : this.partitions) {
+      offsets.put(partition, -1L);
+      highWatermarks.put(partition, -1L);
+    }
+  }
+
+  /**
+   * Let the broker hold each fetch for up to maxWaitMs until minBytes are available, over all the
+   * partitions of the request. By default a fetch returns at once.
+   */
+  public void setFetchWait(int maxWaitMs, int minBytes) {
+    if (maxWaitMs <= 0 || maxWaitMs >= TIMEOUT) {
+      throw new IllegalArgumentException("maxWaitMs must be between 0 and " + TIMEOUT + " "
+          + maxWaitMs);
+    }
+    this.maxWaitMs = maxWaitMs;
+    this.minBytes = minBytes;
+  }
+
+  /**
+   * Fetch from every leader once.
+   *
+   * @return the new messages of each partition, as read-only views of the payloads, in offset order.
+   *         Partitions without a leader or without new messages are left out.
+   */
+  public Map<Integer, List<ByteBuffer>> read() {
+    Map<Integer, List<ByteBuffer>> messages = new LinkedHashMap<Integer, List<ByteBuffer>>();
+    for (Entry<HostPort, List<Integer>> entry : groupByLeader().entrySet()) {
+      SimpleConsumer consumer = consumer(entry.getKey());
+      try {
+        fetch(consumer, entry.getValue(), messages);
+      } catch (RuntimeException e) {
+        // most likely the broker went away, its partitions get a new leader
+        logger.warn("Fetch from " + entry.getKey() + " failed", e);
+        consumers.remove(entry.getKey()).close();
+      }
+    }
+    return messages;
+  }
+
+  private void fetch(SimpleConsumer consumer, List<Integer> leaderPartitions,
+      Map<Integer, List<ByteBuffer>> messages) {
+    initOffsets(consumer, leaderPartitions);
+    FetchRequestBuilder builder =
+        new FetchRequestBuilder().clientId(getClientName()).maxWait(maxWaitMs).minBytes(minBytes);
+    for (Integer partition : leaderPartitions) {
+      builder.addFetch(topic, partition, offsets.get(partition), FETCH_SIZE);
+    }
+    FetchResponse response = consumer.fetch(builder.build());
+    fetchRequests++;
+    for (Integer partition : leaderPartitions) {
+      short errorCode = response.errorCode(topic, partition);
+      if (errorCode == ErrorMapping.OffsetOutOfRangeCode()) {
+        logger.warn("Offset " + offsets.get(partition) + " out of range for " + topic + "/"
+            + partition + ", restarting from the earliest offset");
+        offsets.put(partition, -1L);
+        continue;
+      } else if (errorCode != ErrorMapping.NoError()) {
+        logger.warn("Fetch of " + topic + "/" + partition + " failed with error " + errorCode);
+        continue;
+      }
+      highWatermarks.put(partition, response.highWatermark(topic, partition));
+      long offset = offsets.get(partition);
+      List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+      for (MessageAndOffset messageAndOffset : response.messageSet(topic, partition)) {
+        // a compressed message set can start before the offset we asked for
+        if (messageAndOffset.offset() < offset) {
+          continue;
+        }
+        payloads.add(messageAndOffset.message().payload().asReadOnlyBuffer());
+        offset = messageAndOffset.nextOffset();
+      }
+      offsets.put(partition, offset);
+      if (!payloads.isEmpty()) {
+        messages.put(partition, payloads);
+      }
+    }
+  }
+
+  /**
+   * @return true if any partition has messages after its current offset. Answered from the high
+   *         watermarks of the last fetch while some partition is behind; otherwise the leaders are
+   *         asked for their latest offsets, one request per broker.
+   */
+  public boolean hasNext() {
+    for (Integer partition : partitions) {
+      if (offsets.get(partition) < highWatermarks.get(partition)) {
+        return true;
+      }
+    }
+    for (Entry<HostPort, List<Integer>> entry : groupByLeader().entrySet()) {
+      SimpleConsumer consumer = consumer(entry.getKey());
+      initOffsets(consumer, entry.getValue());
+      Map<Integer, Long> latest =
+          getOffsets(consumer, entry.getValue(), kafka.api.OffsetRequest.LatestTime());
+      for (Entry<Integer, Long> partitionOffset : latest.entrySet()) {
+        highWatermarks.put(partitionOffset.getKey(), partitionOffset.getValue());
+        if (offsets.get(partitionOffset.getKey()) < partitionOffset.getValue()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the next offset that will be read from the partition, -1 before the first read
+   */
+  public long getOffset(int partition) {
+    return offsets.get(partition);
+  }
+
+  /**
+   * @return the number of fetch requests sent so far
+   */
+  public long getFetchRequests() {
+    return fetchRequests;
+  }
+
+  private Map<HostPort, List<Integer>> groupByLeader() {
+    Map<HostPort, List<Integer>> groups = new LinkedHashMap<HostPort, List<Integer>>();
+    for (Integer partition : partitions) {
+      HostPort leader = metadata.getLeader(partition);
+      if (leader == null) {
+        continue;
+      }
+      List<Integer> group = groups.get(leader);
+      if (group == null) {
+        group = new ArrayList<Integer>();
+        groups.put(leader, group);
+      }
+      group.add(partition);
+    }
+    // close the consumers of brokers that lead none of our partitions now
+    Iterator<Entry<HostPort, SimpleConsumer>> iterator = consumers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<HostPort, SimpleConsumer> entry = iterator.next();
+      if (!groups.containsKey(entry.getKey())) {
+        entry.getValue().close();
+        iterator.remove();
+      }
+    }
+    return groups;
+  }
+
+  private SimpleConsumer consumer(HostPort leader) {
+    SimpleConsumer consumer = consumers.get(leader);
+    if (consumer == null) {
+      consumer =
+          new SimpleConsumer(leader.getHost(), leader.getPort(), TIMEOUT, BUFFER_SIZE,
+              getClientName());
+      consumers.put(leader, consumer);
+    }
+    return consumer;
+  }
+
+  /**
+   * Start partitions we have not read yet at their earliest offset.
+   */
+  private void initOffsets(SimpleConsumer consumer, List<Integer> leaderPartitions) {
+    List<Integer> unknown = new ArrayList<Integer>();
+    for (Integer partition : leaderPartitions) {
+      if (offsets.get(partition) < 0) {
+        unknown.add(partition);
+      }
+    }
+    if (!unknown.isEmpty()) {
+      offsets.putAll(getOffsets(consumer, unknown, kafka.api.OffsetRequest.EarliestTime()));
+    }
+  }
+
+  private Map<Integer, Long> getOffsets(SimpleConsumer consumer, List<Integer> leaderPartitions,
+      long time) {
+    Map<TopicAndPartition, PartitionOffsetRequestInfo> offsetInfo =
+        new HashMap<TopicAndPartition, PartitionOffsetRequestInfo>();
+    for (Integer partition : leaderPartitions) {
+      offsetInfo.put(new TopicAndPartition(topic, partition), new PartitionOffsetRequestInfo(time,
+          1));
+    }
+    OffsetResponse response =
+        consumer.getOffsetsBefore(new OffsetRequest(offsetInfo, kafka.api.OffsetRequest
+            .CurrentVersion(), getClientName()));
+    Map<Integer, Long> result = new HashMap<Integer, Long>();
+    for (Integer partition : leaderPartitions) {
+      long[] partitionOffsets = response.offsets(topic, partition);
+      if (partitionOffsets.length > 0) {
+        result.put(partition, partitionOffsets[0]);
+      }
+    }
+    return result;
+  }
+
+  private String getClientName() {
+    return topic + "_multi";
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (SimpleConsumer consumer : consumers.values()) {
+      consumer.close();
+    }
+    consumers.clear();
+    helper.close();
+  }
+}
@@ -0,0 +1,155 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kafka.common.TopicAndPartition;
+
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Commits the offsets of a group of readers to a {@link CheckpointStore}, by default to zookeeper
+ * where the high level consumer keeps them.
+ *
+ * Readers report their offset after every read with {@link #update(String, int, long, int)}, which
+ * only records it. A background thread writes the latest offset of every partition that moved, in
+ * one store write, every interval or as soon as everyMessages messages were read since the last
+ * commit. A failed commit is retried with the next one. Closing commits what is left and closes the
+ * store.
+ */
+public class OffsetCheckpointer implements Closeable {
+  private static final Logger logger = Logger.getLogger(OffsetCheckpointer.class);
+
+  private final CheckpointStore store;
+  private final int everyMessages;
+  private final Map<TopicAndPartition, Long> offsets;
+  // what the store has, only touched by the committing thread
+  private final Map<TopicAndPartition, Long> committed;
+  private final AtomicLong uncommittedMessages;
+  private final AtomicBoolean commitQueued;
+  private final ScheduledExecutorService committer;
+  private long commits;
+
+  /**
+   * Commit to zookeeper as the given consumer group.
+   */
+  public OffsetCheckpointer(ZookeeperHelper helper, String group, int everyMessages,
+      long intervalMs) {
+    this(new ZookeeperCheckpointStore(helper, group), everyMessages, intervalMs);
+  }
+
+  public OffsetCheckpointer(CheckpointStore store, int everyMessages, long intervalMs) {
+    this.store = store;
+    this.everyMessages = everyMessages;
+    this.offsets = new ConcurrentHashMap<TopicAndPartition, Long>();
+    this.committed = new HashMap<TopicAndPartition, Long>();
+    this.uncommittedMessages = new AtomicLong();
+    this.commitQueued = new AtomicBoolean();
+    this.committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "checkpoint-" + OffsetCheckpointer.this.store);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    committer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        commit();
+      }
+    }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Record that the partition was read up to nextOffset, messages more of them since the last
+   * update. Never waits on the store.
+   */
+  public void update(String topic, int partition, long nextOffset, int messages) {
+    offsets.put(new TopicAndPartition(topic, partition), nextOffset);
+    if (uncommittedMessages.addAndGet(messages) >= everyMessages
+        && commitQueued.compareAndSet(false, true)) {
+      try {
+        committer.execute(new Runnable() {
+          @Override
+          public void run() {
+            commitQueued.set(false);
+            commit();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // closed, close() committed the last offsets
+        commitQueued.set(false);
+      }
+    }
+  }
+
+  /**
+   * @return the offset committed for the partition, -1 if there is none
+   */
+  public long getCommitted(String topic, int partition) throws Exception {
+    return store.read(topic, partition);
+  }
+
+  /**
+   * @return the number of store writes so far
+   */
+  public synchronized long getCommits() {
+    return commits;
+  }
+
+  private synchronized void commit() {
+    uncommittedMessages.set(0);
+    Map<TopicAndPartition, Long> moved = new HashMap<TopicAndPartition, Long>();
+    for (Entry<TopicAndPartition, Long> entry : offsets.entrySet()) {
+      if (!entry.getValue().equals(committed.get(entry.getKey()))) {
+        moved.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (moved.isEmpty()) {
+      return;
+    }
+    try {
+      store.write(moved);
+      committed.putAll(moved);
+      commits++;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Committed " + moved.size() + " offsets to " + store);
+      }
+    } catch (Exception e) {
+      logger.warn("Failed to commit the offsets to " + store + ", retrying with the next commit", e);
+    }
+  }
+
+  /**
+   * Stop the periodic commits, commit the last offsets and close the store.
+   */
+  @Override
+  public void close() {
+    committer.shutdown();
+    try {
+      committer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    commit();
+    try {
+      store.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close " + store, e);
+    }
+  }
+}
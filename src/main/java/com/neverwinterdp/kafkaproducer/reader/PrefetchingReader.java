@@ -0,0 +1,221 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fetches a partition ahead of its consumer.
+ *
+ * A background thread long-polls the wrapped {@link KafkaReader} and queues each non-empty message
+ * set, so the next fetch is on the wire while the caller processes the previous one. The queue holds
+ * at most maxSets message sets and maxBytes of payload; when it is full the fetcher waits for the
+ * caller. A single message set larger than maxBytes is still queued, alone, so a big batch cannot
+ * stall the reader.
+ *
+ * The wrapped reader belongs to the fetcher thread once {@link #start()} is called, and is closed
+ * by that thread when it exits, so its connection never goes back to a pool under a fetch.
+ */
+public class PrefetchingReader implements Closeable {
+  private static final Logger logger = Logger.getLogger(PrefetchingReader.class);
+
+  private final KafkaReader reader;
+  private final int maxSets;
+  private final long maxBytes;
+  private final int fetchWait;
+  private final ArrayDeque<MessageSet> queue;
+  private long queuedBytes;
+  private long fetched;
+  private volatile boolean running;
+  private boolean closed;
+  private Thread fetcher;
+
+  /**
+   * @param maxSets how many fetched message sets may wait for the caller
+   * @param maxBytes how many bytes of payload may wait for the caller
+   * @param fetchWait how long each fetch may wait on the broker for messages, in ms
+   */
+  public PrefetchingReader(KafkaReader reader, int maxSets, long maxBytes, int fetchWait) {
+    if (maxSets < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("maxSets and maxBytes must be positive " + maxSets + " "
+          + maxBytes);
+    }
+    this.reader = reader;
+    this.maxSets = maxSets;
+    this.maxBytes = maxBytes;
+    this.fetchWait = fetchWait;
+    this.queue = new ArrayDeque<MessageSet>(maxSets);
+    reader.setFetchWait(fetchWait, 1);
+  }
+
+  public synchronized void start() {
+    if (closed) {
+      throw new IllegalStateException("Prefetch from " + reader + " is closed");
+    }
+    if (fetcher != null) {
+      return;
+    }
+    running = true;
+    fetcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          fetch();
+        } finally {
+          reader.close();
+        }
+      }
+    }, "prefetch-" + reader);
+    fetcher.setDaemon(true);
+    fetcher.start();
+  }
+
+  private void fetch() {
+    while (running) {
+      List<ByteBuffer> payloads;
+      try {
+        payloads = reader.readPayloads();
+      } catch (Exception e) {
+        logger.warn("Prefetch from " + reader + " failed", e);
+        // do not spin on a partition that keeps failing
+        try {
+          Thread.sleep(fetchWait);
+        } catch (InterruptedException ie) {
+          return;
+        }
+        continue;
+      }
+      if (payloads.isEmpty()) {
+        continue;
+      }
+      MessageSet set = new MessageSet(payloads);
+      synchronized (this) {
+        while (running && !queue.isEmpty()
+            && (queue.size() >= maxSets || queuedBytes + set.bytes > maxBytes)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!running) {
+          return;
+        }
+        queue.addLast(set);
+        queuedBytes += set.bytes;
+        fetched += payloads.size();
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return the next prefetched message set, as read-only views of the payloads in offset order,
+   *         or null if none arrived within the timeout
+   */
+  public List<ByteBuffer> poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      while (queue.isEmpty()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0 || !running) {
+          return null;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      MessageSet set = queue.pollFirst();
+      queuedBytes -= set.bytes;
+      notifyAll();
+      return set.payloads;
+    }
+  }
+
+  /**
+   * As {@link #poll(long, TimeUnit)}, decoded the way {@link KafkaReader#read()} does.
+   */
+  public List<String> read(long timeout, TimeUnit unit) throws InterruptedException {
+    List<ByteBuffer> payloads = poll(timeout, unit);
+    if (payloads == null) {
+      return null;
+    }
+    List<String> messages = new ArrayList<String>(payloads.size());
+    for (ByteBuffer payload : payloads) {
+      messages.add(KafkaReader.decode(payload));
+    }
+    return messages;
+  }
+
+  /**
+   * @return the number of message sets waiting for the caller
+   */
+  public synchronized int getQueuedSets() {
+    return queue.size();
+  }
+
+  /**
+   * @return the bytes of payload waiting for the caller
+   */
+  public synchronized long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  /**
+   * @return the number of messages fetched so far, consumed or not
+   */
+  public synchronized long getFetched() {
+    return fetched;
+  }
+
+  /**
+   * Stop the fetcher after the fetch in progress and drop what was not consumed. The fetcher closes
+   * the reader once that fetch returns, which may be after a failover; this waits for it up to the
+   * fetch wait and the socket timeout.
+   */
+  @Override
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      running = false;
+      queue.clear();
+      queuedBytes = 0;
+      notifyAll();
+      thread = fetcher;
+    }
+    if (thread == null) {
+      reader.close();
+      return;
+    }
+    // not interrupted: that would close the connection under a fetch
+    try {
+      thread.join(fetchWait + ReaderContext.TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      logger.warn("Prefetch from " + reader + " still running, it closes the reader when done");
+    }
+  }
+
+  private static class MessageSet {
+    final List<ByteBuffer> payloads;
+    final long bytes;
+
+    MessageSet(List<ByteBuffer> payloads) {
+      long size = 0;
+      for (ByteBuffer payload : payloads) {
+        size += payload.remaining();
+      }
+      this.payloads = payloads;
+      this.bytes = size;
+    }
+  }
+}
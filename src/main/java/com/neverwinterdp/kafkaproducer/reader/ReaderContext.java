@@ -0,0 +1,232 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import kafka.javaapi.consumer.SimpleConsumer;
+
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.TopicMetadataCache;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Connections shared by many readers: one zookeeper session, with its metadata caches, and a pool
+ * of SimpleConsumers per broker.
+ *
+ * A reader built with a context looks its leader up in the cached metadata and borrows a consumer
+ * for as long as it is open, so a reader created after another one closed reuses its connection.
+ * A borrowed consumer belongs to one reader at a time. Consumers left idle for longer than the idle
+ * timeout are closed, and a reader whose consumer failed invalidates it instead of giving it back.
+ */
+public class ReaderContext implements Closeable {
+
+  public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+  static final int BUFFER_SIZE = 64 * 1024;
+  static final int TIMEOUT = 10000;
+  private static final Logger logger = Logger.getLogger(ReaderContext.class);
+
+  private final String zkURL;
+  private final ZookeeperHelper helper;
+  private final long idleTimeout;
+  private final Map<HostPort, Deque<Idle>> idle;
+  private final Map<SimpleConsumer, HostPort> borrowed;
+  private final ScheduledExecutorService evictor;
+  private long created;
+  private boolean closed;
+
+  public ReaderContext(String zkURL) {
+    this(zkURL, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  public ReaderContext(String zkURL, long idleTimeout) {
+    this.zkURL = zkURL;
+    this.helper = new ZookeeperHelper(zkURL);
+    this.idleTimeout = idleTimeout;
+    this.idle = new HashMap<HostPort, Deque<Idle>>();
+    this.borrowed = new IdentityHashMap<SimpleConsumer, HostPort>();
+    this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "reader-context-evictor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    long period = Math.max(1, idleTimeout / 2);
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdle();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  public String getZkURL() {
+    return zkURL;
+  }
+
+  public ZookeeperHelper getZookeeperHelper() {
+    return helper;
+  }
+
+  /**
+   * @return the leader of the partition from the cached metadata, asking zookeeper directly if the
+   *         cache does not know it yet
+   * @throws IllegalArgumentException if the partition has no leader
+   */
+  HostPort getLeader(String topic, int partition) {
+    HostPort leader = null;
+    try {
+      TopicMetadataCache metadata = helper.getTopicMetadataCache(topic);
+      leader = metadata.getLeader(partition);
+      if (leader == null) {
+        leader = helper.getLeaderForTopicAndPartition(topic, partition);
+      }
+    } catch (Exception e) {
+      // reported below
+    }
+    if (leader == null) {
+      throw new IllegalArgumentException("Topic/partition " + topic + "/" + partition
+          + " does not exists");
+    }
+    return leader;
+  }
+
+  /**
+   * Take the most recently used idle consumer of the broker, or connect a new one.
+   */
+  synchronized SimpleConsumer borrow(HostPort broker) {
+    if (closed) {
+      throw new IllegalStateException("Reader context is closed");
+    }
+    SimpleConsumer consumer = null;
+    Deque<Idle> consumers = idle.get(broker);
+    if (consumers != null && !consumers.isEmpty()) {
+      consumer = consumers.pollFirst().consumer;
+    } else {
+      consumer =
+          new SimpleConsumer(broker.getHost(), broker.getPort(), TIMEOUT, BUFFER_SIZE,
+              "reader-context");
+      created++;
+      logger.info("New consumer for " + broker);
+    }
+    borrowed.put(consumer, broker);
+    return consumer;
+  }
+
+  /**
+   * Give back a consumer obtained from {@link #borrow(HostPort)} for other readers to use.
+   */
+  synchronized void release(SimpleConsumer consumer) {
+    HostPort broker = borrowed.remove(consumer);
+    if (broker == null) {
+      return;
+    }
+    if (closed) {
+      consumer.close();
+      return;
+    }
+    Deque<Idle> consumers = idle.get(broker);
+    if (consumers == null) {
+      consumers = new ArrayDeque<Idle>();
+      idle.put(broker, consumers);
+    }
+    consumers.addFirst(new Idle(consumer, System.currentTimeMillis()));
+  }
+
+  /**
+   * Close a borrowed consumer that failed rather than give it back.
+   */
+  synchronized void invalidate(SimpleConsumer consumer) {
+    if (borrowed.remove(consumer) != null) {
+      consumer.close();
+    }
+  }
+
+  /**
+   * Close the consumers that have been idle for longer than the idle timeout. Runs periodically.
+   */
+  public synchronized void evictIdle() {
+    long now = System.currentTimeMillis();
+    Iterator<Deque<Idle>> brokers = idle.values().iterator();
+    while (brokers.hasNext()) {
+      Deque<Idle> consumers = brokers.next();
+      // the least recently used are at the end
+      while (!consumers.isEmpty() && now - consumers.peekLast().since >= idleTimeout) {
+        consumers.pollLast().consumer.close();
+      }
+      if (consumers.isEmpty()) {
+        brokers.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of consumers connected so far
+   */
+  public synchronized long getCreatedCount() {
+    return created;
+  }
+
+  /**
+   * @return the number of consumers waiting in the pool
+   */
+  public synchronized int getIdleCount() {
+    int count = 0;
+    for (Deque<Idle> consumers : idle.values()) {
+      count += consumers.size();
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of consumers held by readers
+   */
+  public synchronized int getBorrowedCount() {
+    return borrowed.size();
+  }
+
+  /**
+   * Close the idle consumers and the zookeeper session. Consumers still borrowed are closed when
+   * their readers give them back.
+   */
+  @Override
+  public void close() throws IOException {
+    evictor.shutdownNow();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (Deque<Idle> consumers : idle.values()) {
+        for (Idle entry : consumers) {
+          entry.consumer.close();
+        }
+      }
+      idle.clear();
+    }
+    helper.close();
+  }
+
+  private static class Idle {
+    final SimpleConsumer consumer;
+    final long since;
+
+    Idle(SimpleConsumer consumer, long since) {
+      this.consumer = consumer;
+      this.since = since;
+    }
+  }
+}
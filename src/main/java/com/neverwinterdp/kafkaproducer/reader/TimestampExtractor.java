@@ -0,0 +1,16 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the time a message was written from its payload, for
+ * {@link KafkaReader#seekToTime(long)}.
+ */
+public interface TimestampExtractor {
+
+  /**
+   * @return the time the message was written, in ms since the epoch, or -1 if it carries none. The
+   *         position of the payload is left alone.
+   */
+  long getTimestamp(ByteBuffer payload);
+}
@@ -0,0 +1,60 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import kafka.common.TopicAndPartition;
+
+import com.google.common.base.Charsets;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Keeps the offsets where the high level consumer does, the next offset to read as a decimal string
+ * in /consumers/[group]/offsets/[topic]/[partition]. All the offsets of a write go in one multi-op,
+ * see {@link ZookeeperHelper#updateProgress(Map)}.
+ */
+public class ZookeeperCheckpointStore implements CheckpointStore {
+
+  private final ZookeeperHelper helper;
+  private final String group;
+
+  public ZookeeperCheckpointStore(ZookeeperHelper helper, String group) {
+    this.helper = helper;
+    this.group = group;
+  }
+
+  @Override
+  public void write(Map<TopicAndPartition, Long> offsets) throws Exception {
+    Map<String, byte[]> progress = new HashMap<String, byte[]>();
+    for (Entry<TopicAndPartition, Long> entry : offsets.entrySet()) {
+      progress.put(path(entry.getKey().topic(), entry.getKey().partition()), entry.getValue()
+          .toString().getBytes(Charsets.UTF_8));
+    }
+    helper.updateProgress(progress);
+  }
+
+  @Override
+  public long read(String topic, int partition) throws Exception {
+    byte[] data = helper.readProgress(path(topic, partition));
+    if (data == null) {
+      return -1;
+    }
+    return Long.parseLong(new String(data, Charsets.UTF_8).trim());
+  }
+
+  private String path(String topic, int partition) {
+    return "/consumers/" + group + "/offsets/" + topic + "/" + partition;
+  }
+
+  /**
+   * The zookeeper helper is the caller's, it is left open.
+   */
+  @Override
+  public void close() {}
+
+  @Override
+  public String toString() {
+    return "zookeeper:" + group;
+  }
+}
@@ -1,7 +1,15 @@
 package com.neverwinterdp.kafkaproducer.util;
 
+import kafka.utils.VerifiableProperties;
+
 
 public class BytesEncoder implements kafka.serializer.Encoder<byte[]> {
+
+  public BytesEncoder() {}
+
+  // the producer instantiates its encoders reflectively with this signature
+  public BytesEncoder(VerifiableProperties props) {}
+
   @Override
   public byte[] toBytes(byte[] bytes) {
     return bytes;
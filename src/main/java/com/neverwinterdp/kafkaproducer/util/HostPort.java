@@ -31,4 +31,19 @@ public class HostPort {
   public String toString() {
     return host + ":" + port;
   }
+
+  @Override
+  public int hashCode() {
+    return 31 * host.hashCode() + port;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof HostPort))
+      return false;
+    HostPort other = (HostPort) obj;
+    return port == other.port && host.equals(other.host);
+  }
 }
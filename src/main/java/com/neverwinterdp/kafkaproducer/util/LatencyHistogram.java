@@ -0,0 +1,137 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log bucketed histogram of latencies, laid out like HdrHistogram.
+ *
+ * Values below 2^subBucketBits get a bucket each. Above that every power of two is split into
+ * 2^(subBucketBits-1) equal buckets, so a recorded value is off by less than 1/2^(subBucketBits-1)
+ * of itself. All counts live in one preallocated array, recording does not allocate and is safe
+ * from several threads. Values above highestTrackable are counted as highestTrackable.
+ */
+public class LatencyHistogram {
+
+  private final int subBucketBits;
+  private final int subBucketCount;
+  private final int subBucketHalfCount;
+  private final long highestTrackable;
+  private final AtomicLongArray counts;
+  private final AtomicLong totalCount;
+  private final AtomicLong max;
+
+  public LatencyHistogram(long highestTrackable, int subBucketBits) {
+    if (subBucketBits < 1 || subBucketBits > 20) {
+      throw new IllegalArgumentException("subBucketBits must be between 1 and 20 " + subBucketBits);
+    }
+    this.subBucketBits = subBucketBits;
+    this.subBucketCount = 1 << subBucketBits;
+    this.subBucketHalfCount = subBucketCount / 2;
+    this.highestTrackable = highestTrackable;
+    this.counts = new AtomicLongArray(indexOf(highestTrackable) + 1);
+    this.totalCount = new AtomicLong();
+    this.max = new AtomicLong();
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value " + value);
+    }
+    long clamped = Math.min(value, highestTrackable);
+    counts.incrementAndGet(indexOf(clamped));
+    totalCount.incrementAndGet();
+    long current;
+    while (clamped > (current = max.get()) && !max.compareAndSet(current, clamped)) {
+    }
+  }
+
+  /**
+   * Add the counts of other, which must have the same layout.
+   */
+  public void add(LatencyHistogram other) {
+    if (other.subBucketBits != subBucketBits || other.highestTrackable != highestTrackable) {
+      throw new IllegalArgumentException("Histograms have different layouts");
+    }
+    for (int i = 0; i < counts.length(); i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    totalCount.addAndGet(other.totalCount.get());
+    long current;
+    long otherMax = other.max.get();
+    while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) {
+    }
+  }
+
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return the highest value equivalent to the bucket holding the percentile, 0 when empty
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = totalCount.get();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueAt(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Write one "low high count" line per non empty bucket, for comparing runs.
+   */
+  public void write(PrintStream out) {
+    out.println("# subBucketBits=" + subBucketBits + " highestTrackable=" + highestTrackable
+        + " totalCount=" + totalCount.get() + " max=" + max.get());
+    for (int i = 0; i < counts.length(); i++) {
+      long count = counts.get(i);
+      if (count > 0) {
+        out.println(lowestValueAt(i) + " " + highestValueAt(i) + " " + count);
+      }
+    }
+  }
+
+  int indexOf(long value) {
+    if (value < subBucketCount) {
+      return (int) value;
+    }
+    // shift so the value lands in the upper half of the sub buckets
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+    return shift * subBucketHalfCount + (int) (value >>> shift);
+  }
+
+  long lowestValueAt(int index) {
+    if (index < subBucketCount) {
+      return index;
+    }
+    int shift = index / subBucketHalfCount - 1;
+    long subBucket = index % subBucketHalfCount + subBucketHalfCount;
+    return subBucket << shift;
+  }
+
+  long highestValueAt(int index) {
+    if (index < subBucketCount) {
+      return index;
+    }
+    int shift = index / subBucketHalfCount - 1;
+    long subBucket = index % subBucketHalfCount + subBucketHalfCount;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
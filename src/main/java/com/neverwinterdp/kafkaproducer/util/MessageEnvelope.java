@@ -0,0 +1,147 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed layout binary record for generated test traffic, the compact counterpart of the
+ * "TOPIC:.., PARTITION:.., WriterID:.., SEQUENCE:.., TIME:.." text of DefaultMessageGenerator.
+ *
+ * <pre>
+ * offset  size  field
+ *  0      1     version, currently 1
+ *  1      4     writer id
+ *  5      4     partition
+ *  9      8     sequence
+ * 17      8     timestamp, nanoseconds since the epoch
+ * 25      4     payload length
+ * 29      n     payload
+ * </pre>
+ *
+ * All numbers are big endian. The static getters read a field straight from its offset, so the
+ * partitioner and the readers never copy or parse the message.
+ */
+public final class MessageEnvelope {
+
+  public static final byte VERSION = 1;
+  public static final int HEADER_LENGTH = 29;
+
+  private static final int WRITER_ID = 1;
+  private static final int PARTITION = 5;
+  private static final int SEQUENCE = 9;
+  private static final int TIMESTAMP = 17;
+  private static final int PAYLOAD_LENGTH = 25;
+
+  // nanoTime is precise but has no origin, pin it to the wall clock once
+  private static final long EPOCH_OFFSET_NANOS = TimeUnit.MILLISECONDS.toNanos(System
+      .currentTimeMillis()) - System.nanoTime();
+
+  private MessageEnvelope() {}
+
+  /**
+   * @return the current time in nanoseconds since the epoch, as precise as System.nanoTime() and as
+   *         accurate as System.currentTimeMillis()
+   */
+  public static long currentTimeNanos() {
+    return EPOCH_OFFSET_NANOS + System.nanoTime();
+  }
+
+  public static byte[] encode(int writerId, int partition, long sequence, long timestampNanos,
+      byte[] payload) {
+    byte[] message = new byte[HEADER_LENGTH + payload.length];
+    encode(ByteBuffer.wrap(message), writerId, partition, sequence, timestampNanos, payload);
+    return message;
+  }
+
+  /**
+   * Write an envelope at the position of the buffer and advance it.
+   */
+  public static void encode(ByteBuffer buffer, int writerId, int partition, long sequence,
+      long timestampNanos, byte[] payload) {
+    buffer.put(VERSION);
+    buffer.putInt(writerId);
+    buffer.putInt(partition);
+    buffer.putLong(sequence);
+    buffer.putLong(timestampNanos);
+    buffer.putInt(payload.length);
+    buffer.put(payload);
+  }
+
+  /**
+   * @return true if the message is long enough and of a known version
+   */
+  public static boolean isEnvelope(byte[] message) {
+    return message.length >= HEADER_LENGTH && message[0] == VERSION
+        && HEADER_LENGTH + getPayloadLength(message) == message.length;
+  }
+
+  public static boolean isEnvelope(ByteBuffer message) {
+    int position = message.position();
+    return message.remaining() >= HEADER_LENGTH && message.get(position) == VERSION
+        && HEADER_LENGTH + getPayloadLength(message) == message.remaining();
+  }
+
+  public static int getWriterId(byte[] message) {
+    return getInt(message, WRITER_ID);
+  }
+
+  public static int getPartition(byte[] message) {
+    return getInt(message, PARTITION);
+  }
+
+  public static long getSequence(byte[] message) {
+    return getLong(message, SEQUENCE);
+  }
+
+  public static long getTimestamp(byte[] message) {
+    return getLong(message, TIMESTAMP);
+  }
+
+  public static int getPayloadLength(byte[] message) {
+    return getInt(message, PAYLOAD_LENGTH);
+  }
+
+  /*
+   * The ByteBuffer getters read relative to the position of the buffer, as handed out by
+   * Message.payload(), and leave the position alone.
+   */
+
+  public static int getWriterId(ByteBuffer message) {
+    return message.getInt(message.position() + WRITER_ID);
+  }
+
+  public static int getPartition(ByteBuffer message) {
+    return message.getInt(message.position() + PARTITION);
+  }
+
+  public static long getSequence(ByteBuffer message) {
+    return message.getLong(message.position() + SEQUENCE);
+  }
+
+  public static long getTimestamp(ByteBuffer message) {
+    return message.getLong(message.position() + TIMESTAMP);
+  }
+
+  public static int getPayloadLength(ByteBuffer message) {
+    return message.getInt(message.position() + PAYLOAD_LENGTH);
+  }
+
+  /**
+   * @return a view of the payload, sharing the message's bytes
+   */
+  public static ByteBuffer getPayload(ByteBuffer message) {
+    ByteBuffer payload = message.duplicate();
+    payload.position(message.position() + HEADER_LENGTH);
+    payload.limit(payload.position() + getPayloadLength(message));
+    return payload.slice();
+  }
+
+  private static int getInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+        | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+  }
+
+  private static long getLong(byte[] bytes, int offset) {
+    return (long) getInt(bytes, offset) << 32 | getInt(bytes, offset + 4) & 0xffffffffL;
+  }
+}
@@ -0,0 +1,81 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket that hands out the time at which permits become available rather than sleeping in
+ * millisecond steps, so callers can pace at hundreds of thousands of permits per second.
+ *
+ * Tokens accrue at the current rate. A caller reserves permits, gets back the nanoTime at which they
+ * are due and waits for it with {@link #awaitUntil(long)}. When callers fall behind, the reserved
+ * times lie in the past and the backlog is sent without waiting, up to burst worth of time; older
+ * backlog is forgotten.
+ */
+public class TokenBucket {
+
+  // below this we spin instead of parking, parkNanos is not precise enough
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final long burstNanos;
+  private double nanosPerPermit;
+  private long nextFree;
+
+  /**
+   * @param permitsPerSecond initial rate
+   * @param burstNanos how far behind schedule callers may be before the backlog is dropped,
+   *        Long.MAX_VALUE to never drop it
+   */
+  public TokenBucket(double permitsPerSecond, long burstNanos) {
+    this.burstNanos = burstNanos;
+    this.nextFree = System.nanoTime();
+    setRate(permitsPerSecond);
+  }
+
+  public synchronized void setRate(double permitsPerSecond) {
+    if (permitsPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive " + permitsPerSecond);
+    }
+    nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+  }
+
+  public synchronized double getRate() {
+    return TimeUnit.SECONDS.toNanos(1) / nanosPerPermit;
+  }
+
+  /**
+   * Reserve the permits and return the nanoTime at which they are due. Does not wait.
+   */
+  public synchronized long reserve(int permits) {
+    long now = System.nanoTime();
+    if (burstNanos != Long.MAX_VALUE && now - nextFree > burstNanos) {
+      nextFree = now - burstNanos;
+    }
+    long due = nextFree;
+    nextFree += (long) (permits * nanosPerPermit);
+    return due;
+  }
+
+  /**
+   * Reserve the permits and wait until they are due.
+   *
+   * @return the nanoTime the permits were due at, which is earlier than now if we were behind
+   */
+  public long acquire(int permits) {
+    long due = reserve(permits);
+    awaitUntil(due);
+    return due;
+  }
+
+  /**
+   * Wait until System.nanoTime() reaches deadline: park for most of the time, spin the rest.
+   */
+  public static void awaitUntil(long deadline) {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+      }
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * In memory view of the brokers, leaders and ISRs of a topic.
+ *
+ * The cache keeps watches on /brokers/ids, /brokers/topics/[topic] and on the state node of every
+ * partition of the topic. Lookups never go to zookeeper, and the version is only bumped when a
+ * watch reports a change that affects the leaders or brokers of the topic.
+ */
+public class TopicMetadataCache implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(TopicMetadataCache.class);
+
+  private final CuratorFramework zkClient;
+  private final String topic;
+  private final String topicPath;
+  private final String partitionsPath;
+
+  private final PathChildrenCache brokersCache;
+  private final NodeCache topicCache;
+  private final Map<Integer, NodeCache> partitionCaches;
+  private final CopyOnWriteArrayList<Listener> listeners;
+
+  private volatile Snapshot snapshot;
+  private volatile long version;
+  private boolean closed;
+
+  /**
+   * Notified, from the zookeeper event thread, every time the version of the cache changes.
+   */
+  public interface Listener {
+    void metadataChanged(TopicMetadataCache cache);
+  }
+
+  TopicMetadataCache(CuratorFramework zkClient, String brokerInfoLocation,
+      String topicInfoLocation, String topic) throws Exception {
+    this.zkClient = zkClient;
+    this.topic = topic;
+    this.topicPath = topicInfoLocation + topic;
+    this.partitionsPath = topicPath + "/partitions/";
+    this.partitionCaches = new ConcurrentHashMap<Integer, NodeCache>();
+    this.listeners = new CopyOnWriteArrayList<Listener>();
+    this.snapshot = new Snapshot();
+    this.version = 0;
+
+    // PathChildrenCache wants the parent path, without the trailing slash
+    String brokersPath = brokerInfoLocation.endsWith("/")
+        ? brokerInfoLocation.substring(0, brokerInfoLocation.length() - 1) : brokerInfoLocation;
+    brokersCache = new PathChildrenCache(zkClient, brokersPath, true);
+    brokersCache.getListenable().addListener(new PathChildrenCacheListener() {
+      @Override
+      public void childEvent(CuratorFramework client, PathChildrenCacheEvent event)
+          throws Exception {
+        refresh();
+      }
+    });
+    topicCache = new NodeCache(zkClient, topicPath);
+    topicCache.getListenable().addListener(new NodeCacheListener() {
+      @Override
+      public void nodeChanged() throws Exception {
+        refresh();
+      }
+    });
+    brokersCache.start(StartMode.BUILD_INITIAL_CACHE);
+    topicCache.start(true);
+    refresh();
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  /**
+   * A counter that is incremented every time the leaders or brokers of the topic change.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the leader of the partition, null if the partition has no live leader
+   */
+  public HostPort getLeader(int partition) {
+    return snapshot.leaders.get(partition);
+  }
+
+  public Set<Integer> getIsr(int partition) {
+    PartitionState state = snapshot.states.get(partition);
+    if (state == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(state.getIsr());
+  }
+
+  /**
+   * The live brokers holding a replica of the partition, in the same form as
+   * {@link ZookeeperHelper#getBrokersForTopicAndPartition(String, int)}
+   */
+  public Collection<HostPort> getBrokersForPartition(int partition) {
+    Collection<HostPort> brokers = new LinkedList<HostPort>();
+    Snapshot current = snapshot;
+    for (Integer id : getIsr(partition)) {
+      HostPort broker = current.brokers.get(id);
+      if (broker != null) {
+        brokers.add(broker);
+      }
+    }
+    return brokers;
+  }
+
+  /**
+   * The live brokers holding a replica of any partition of the topic, in the same form as
+   * {@link ZookeeperHelper#getBrokersForTopic(String)}.values()
+   */
+  public Collection<HostPort> getBrokers() {
+    return snapshot.replicas;
+  }
+
+  public Set<Integer> getPartitions() {
+    return snapshot.states.keySet();
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Rebuild the snapshot from the cached zookeeper data. Bumps the version only if the result
+   * differs from the current snapshot.
+   */
+  private synchronized void refresh() throws Exception {
+    if (closed) {
+      return;
+    }
+    Topic topik = parse(topicCache.getCurrentData(), Topic.class);
+    if (topik == null) {
+      topik = new Topic();
+    }
+    // watch the state of partitions we have not seen yet
+    for (String key : topik.getPartitions().keySet()) {
+      Integer partition = Integer.valueOf(key);
+      if (!partitionCaches.containsKey(partition)) {
+        NodeCache cache = new NodeCache(zkClient, partitionsPath + partition + "/state");
+        cache.getListenable().addListener(new NodeCacheListener() {
+          @Override
+          public void nodeChanged() throws Exception {
+            refresh();
+          }
+        });
+        cache.start(true);
+        partitionCaches.put(partition, cache);
+      }
+    }
+
+    Map<Integer, HostPort> brokers = new HashMap<Integer, HostPort>();
+    for (ChildData data : brokersCache.getCurrentData()) {
+      Broker broker = parse(data, Broker.class);
+      if (broker != null) {
+        String id = data.getPath().substring(data.getPath().lastIndexOf('/') + 1);
+        brokers.put(Integer.valueOf(id), new HostPort(broker.getHost(), broker.getPort()));
+      }
+    }
+
+    ImmutableList.Builder<HostPort> replicas = ImmutableList.builder();
+    for (Entry<String, Set<Integer>> topicPartition : topik.getPartitions().entrySet()) {
+      for (Integer replicaID : topicPartition.getValue()) {
+        HostPort broker = brokers.get(replicaID);
+        if (broker != null) {
+          replicas.add(broker);
+        }
+      }
+    }
+
+    ImmutableMap.Builder<Integer, PartitionState> states = ImmutableMap.builder();
+    ImmutableMap.Builder<Integer, HostPort> leaders = ImmutableMap.builder();
+    for (Entry<Integer, NodeCache> entry : partitionCaches.entrySet()) {
+      PartitionState state = parse(entry.getValue().getCurrentData(), PartitionState.class);
+      if (state == null) {
+        continue;
+      }
+      states.put(entry.getKey(), state);
+      HostPort leader = brokers.get(state.getLeader());
+      if (leader != null) {
+        leaders.put(entry.getKey(), leader);
+      }
+    }
+
+    Snapshot next =
+        new Snapshot(brokers, ImmutableMap.copyOf(topik.getPartitions()), replicas.build(),
+            states.build(), leaders.build());
+    if (next.isSameRouting(snapshot)) {
+      snapshot = next;
+      return;
+    }
+    snapshot = next;
+    version++;
+    logger.info("Metadata for " + topic + " changed. version " + version + " leaders "
+        + next.leaders + " brokers " + next.replicas);
+    for (Listener listener : listeners) {
+      listener.metadataChanged(this);
+    }
+  }
+
+  private static <T> T parse(ChildData data, Class<T> clazz) {
+    if (data == null || data.getData() == null || data.getData().length == 0) {
+      return null;
+    }
+    return Utils.toClass(data.getData(), clazz);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    listeners.clear();
+    for (NodeCache cache : partitionCaches.values()) {
+      cache.close();
+    }
+    partitionCaches.clear();
+    topicCache.close();
+    brokersCache.close();
+  }
+
+  private static class Snapshot {
+    final Map<Integer, HostPort> brokers;
+    // the replica ids of every partition, as assigned in /brokers/topics/[topic]
+    final Map<String, Set<Integer>> assignment;
+    final Collection<HostPort> replicas;
+    final Map<Integer, PartitionState> states;
+    final Map<Integer, HostPort> leaders;
+
+    Snapshot() {
+      this(Collections.<Integer, HostPort>emptyMap(),
+          Collections.<String, Set<Integer>>emptyMap(), Collections.<HostPort>emptyList(),
+          Collections.<Integer, PartitionState>emptyMap(),
+          Collections.<Integer, HostPort>emptyMap());
+    }
+
+    Snapshot(Map<Integer, HostPort> brokers, Map<String, Set<Integer>> assignment,
+        Collection<HostPort> replicas, Map<Integer, PartitionState> states,
+        Map<Integer, HostPort> leaders) {
+      this.brokers = brokers;
+      this.assignment = assignment;
+      this.replicas = replicas;
+      this.states = states;
+      this.leaders = leaders;
+    }
+
+    // the epochs in the partition state change on every election, the leaders and brokers are
+    // what the writers route on; the same brokers and assignment make the same replicas
+    boolean isSameRouting(Snapshot other) {
+      return brokers.equals(other.brokers) && assignment.equals(other.assignment)
+          && leaders.equals(other.leaders) && states.keySet().equals(other.states.keySet());
+    }
+  }
+}
@@ -24,12 +24,15 @@ import org.I0Itec.zkclient.ZkClient;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.KeeperException.NodeExistsException;
 import org.apache.zookeeper.data.Stat;
 
 import scala.collection.Seq;
@@ -52,12 +55,14 @@ public class ZookeeperHelper implements Closeable {
   private String zkConnectString;
   private CuratorFramework zkClient;
   private PathChildrenCache pathChildrenCache;
+  private Map<String, TopicMetadataCache> metadataCaches;
 
   public ZookeeperHelper(String zookeeperURL) {
     super();
     zkConnectString = zookeeperURL;
     zkClient = CuratorFrameworkFactory.newClient(zkConnectString,
         retryPolicy);
+    metadataCaches = new HashMap<>();
     init();
   }
 
@@ -249,6 +254,50 @@ public class ZookeeperHelper implements Closeable {
     writeData(path, data);
   }
 
+  /**
+   * Write all the paths in one multi-op transaction: either every path gets its data or none does.
+   * Missing paths are created, outside the transaction, the first time.
+   */
+  public void updateProgress(Map<String, byte[]> progress) throws Exception {
+    if (progress.isEmpty()) {
+      return;
+    }
+    try {
+      commit(progress);
+    } catch (NoNodeException e) {
+      for (String path : progress.keySet()) {
+        if (zkClient.checkExists().forPath(path) == null) {
+          try {
+            zkClient.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT)
+                .forPath(path);
+          } catch (NodeExistsException ne) {
+            // created by another writer meanwhile
+          }
+        }
+      }
+      commit(progress);
+    }
+  }
+
+  private void commit(Map<String, byte[]> progress) throws Exception {
+    CuratorTransaction transaction = zkClient.inTransaction();
+    for (Entry<String, byte[]> entry : progress.entrySet()) {
+      transaction = transaction.setData().forPath(entry.getKey(), entry.getValue()).and();
+    }
+    ((CuratorTransactionFinal) transaction).commit();
+  }
+
+  /**
+   * @return the data written by {@link #updateProgress(String, byte[])}, null if there is none
+   */
+  public byte[] readProgress(String path) throws Exception {
+    try {
+      return zkClient.getData().forPath(path);
+    } catch (NoNodeException e) {
+      return null;
+    }
+  }
+
   public void deleteKafkaData() {
     logger.info("removeKafkaData. ");
     try {
@@ -288,10 +337,29 @@ public class ZookeeperHelper implements Closeable {
   }
 
 
+  /**
+   * A watch backed view of the leaders and brokers of the topic. The cache is shared by all callers
+   * of this helper and is closed with it.
+   */
+  public synchronized TopicMetadataCache getTopicMetadataCache(String topic) throws Exception {
+    TopicMetadataCache cache = metadataCaches.get(topic);
+    if (cache == null) {
+      cache = new TopicMetadataCache(zkClient, brokerInfoLocation, topicInfoLocation, topic);
+      metadataCaches.put(topic, cache);
+    }
+    return cache;
+  }
+
   @Override
   public void close() throws IOException {
     if (pathChildrenCache != null)
       pathChildrenCache.close();
+    synchronized (this) {
+      for (TopicMetadataCache cache : metadataCaches.values()) {
+        cache.close();
+      }
+      metadataCaches.clear();
+    }
     zkClient.close();
   }
 
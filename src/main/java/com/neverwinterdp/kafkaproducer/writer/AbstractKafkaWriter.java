@@ -0,0 +1,538 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import kafka.common.FailedToSendMessageException;
+import kafka.producer.DefaultPartitioner;
+import kafka.producer.KeyedMessage;
+import kafka.producer.Partitioner;
+import kafka.serializer.Encoder;
+import kafka.serializer.StringEncoder;
+import kafka.utils.VerifiableProperties;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.neverwinterdp.kafkaproducer.messagegenerator.MessageGenerator;
+import com.neverwinterdp.kafkaproducer.retry.RetryableRunnable;
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.TopicMetadataCache;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * A writer to one topic (and optionally one partition) for messages of type V. Keys are always
+ * strings so the partitioners see the same keys whatever the payload type is.
+ *
+ * Subclasses pick the encoder for V and tell the writer how to key and size a message.
+ */
+public abstract class AbstractKafkaWriter<V> implements RetryableRunnable, Closeable {
+
+  private static final Logger logger = Logger.getLogger(AbstractKafkaWriter.class);
+
+  private volatile MessageProducer<V> producer;
+  // sends hold the read lock, a reconnect swaps the producer under the write lock
+  private final ReadWriteLock producerLock = new ReentrantReadWriteLock();
+  private ProducerEngine engine;
+  private WriterContext context;
+  private String zkURL;
+  private String topic;
+  protected int partition;
+  private String partitionString;
+  private MessageGenerator<V> messageGenerator;
+  private Class<? extends Partitioner> partitionerClass;
+  private Class<? extends Encoder<V>> encoderClass;
+  private ZookeeperHelper helper;
+  private TopicMetadataCache metadata;
+  private long metadataVersion;
+  private Properties properties;
+  private Collection<HostPort> brokerList;
+  private boolean connected;
+  private Collection<HostPort> brokers;
+  private HostPort leader;
+  // the leader as last seen by the metadata listener, on the zookeeper event thread
+  private HostPort watchedLeader;
+  private TopicMetadataCache.Listener leaderListener;
+  private volatile long failoverStart;
+  private volatile long lastRecoveryMillis = -1;
+  private MessageAccumulator<String, V> accumulator;
+  private AsyncSender<String, V> asyncSender;
+  private int maxInFlight;
+  private MessageAccumulator.Sender<String, V> batchSender;
+
+  protected AbstractKafkaWriter(AbstractBuilder<V, ?> builder,
+      Class<? extends Encoder<V>> encoderClass) throws Exception {
+    zkURL = builder.zkURL;
+    brokerList = builder.brokerList;
+    context = builder.context;
+    if (context != null && context.getZookeeperHelper() != null) {
+      zkURL = context.getZkURL();
+      metadata = context.getZookeeperHelper().getTopicMetadataCache(builder.topic);
+    } else if (zkURL != null) {
+      helper = new ZookeeperHelper(zkURL);
+      metadata = helper.getTopicMetadataCache(builder.topic);
+    }
+    topic = builder.topic;
+    partition = builder.partition;
+    partitionString = Integer.toString(partition);
+    messageGenerator = builder.messageGenerator;
+    partitionerClass = builder.partitionerClass;
+    this.encoderClass = encoderClass;
+    properties = builder.properties;
+    maxInFlight = builder.maxInFlight;
+    engine = builder.engine;
+    batchSender = new MessageAccumulator.Sender<String, V>() {
+      @Override
+      public void send(List<KeyedMessage<String, V>> batch) {
+        producerLock.readLock().lock();
+        try {
+          producer.send(batch);
+        } finally {
+          producerLock.readLock().unlock();
+        }
+        sent();
+      }
+    };
+    if (builder.batchSize > 0 || builder.batchBytes > 0 || builder.lingerMs > 0) {
+      int maxMessages = builder.batchSize > 0 ? builder.batchSize : Integer.MAX_VALUE;
+      long maxBytes = builder.batchBytes > 0 ? builder.batchBytes : Long.MAX_VALUE;
+      accumulator =
+          new MessageAccumulator<String, V>(batchSender, maxMessages, maxBytes, builder.lingerMs);
+    }
+    connect();
+    if (metadata != null) {
+      watchedLeader = leader;
+      leaderListener = new TopicMetadataCache.Listener() {
+        @Override
+        public void metadataChanged(TopicMetadataCache cache) {
+          leaderChanged(cache.getLeader(partition));
+        }
+      };
+      metadata.addListener(leaderListener);
+    }
+  }
+
+  /**
+   * The key the partitioner sees for a message when the writer has no fixed partition.
+   */
+  protected abstract String partitionKey(V message);
+
+  /**
+   * The object the partitioner is called with when the writer has no fixed partition, the key by
+   * default. Writers whose messages carry their own routing can hand over the message itself.
+   */
+  protected Object partitionObject(V message, String key) {
+    return key;
+  }
+
+  /**
+   * The size of the message, as counted against the batchBytes limit.
+   */
+  protected abstract int sizeOf(V message);
+
+  private void connect() {
+    try {
+
+      String brokerString;
+      if (metadata != null) {
+        metadataVersion = metadata.getVersion();
+        brokers = ImmutableSet.copyOf(metadata.getBrokers());
+        leader = metadata.getLeader(partition);
+      } else {
+        brokers = brokerList;
+      }
+      if (brokers.size() == 0) {
+        connected = false;
+      } else {
+        brokerString = brokers.toString().replace("[", "").replace("]", "");
+        Properties props = new Properties();
+
+        // 0, the producer never waits for an acknowledgement from the broker
+        // 1, the producer gets an acknowledgement after the leader replica
+        // has
+        // received the data.
+        // -1, the producer gets an acknowledgement after all in-sync replicas
+        // have received the data.
+        props.put("request.required.acks", "-1");
+        props.put("metadata.broker.list", brokerString);
+        props.put("serializer.class", encoderClass.getName());
+        props.put("key.serializer.class", StringEncoder.class.getName());
+        props.put("partitioner.class", partitionerClass.getName());
+
+        props.putAll(properties);
+
+        MessageProducer<V> created;
+        if (engine == ProducerEngine.JAVA) {
+          created = createJavaProducer(props);
+        } else {
+          created = new ScalaMessageProducer<V>(props, context);
+        }
+        MessageProducer<V> replaced;
+        // waits for the sends in progress on the replaced producer
+        producerLock.writeLock().lock();
+        try {
+          replaced = producer;
+          producer = created;
+        } finally {
+          producerLock.writeLock().unlock();
+        }
+        connected = true;
+        // the replaced producer's sockets and threads, or its reference in the context
+        if (replaced != null) {
+          replaced.close();
+        }
+      }
+
+    } catch (Exception e) {
+      connected = false;
+      e.printStackTrace();
+      
+    }
+
+  }
+
+  /**
+   * The java producer has its own names for the broker list and the acks, and takes the encoder and
+   * partitioner as objects.
+   */
+  private MessageProducer<V> createJavaProducer(Properties scalaProps) throws Exception {
+    Properties props = new Properties();
+    props.put("bootstrap.servers", scalaProps.getProperty("metadata.broker.list"));
+    props.put("acks", scalaProps.getProperty("request.required.acks"));
+    props.put("client.id", topic);
+    for (String name : properties.stringPropertyNames()) {
+      if (!name.contains(".class") && !name.startsWith("request.required")
+          && !name.startsWith("producer.type")) {
+        props.put(name, properties.getProperty(name));
+      }
+    }
+    VerifiableProperties verifiable = new VerifiableProperties(scalaProps);
+    Encoder<V> encoder = encoderClass.getConstructor(VerifiableProperties.class)
+        .newInstance(verifiable);
+    Partitioner partitioner;
+    try {
+      partitioner = partitionerClass.getConstructor(VerifiableProperties.class)
+          .newInstance(verifiable);
+    } catch (NoSuchMethodException e) {
+      partitioner = partitionerClass.getConstructor().newInstance();
+    }
+    return new JavaMessageProducer<V>(props, encoder, partitioner, context);
+  }
+
+  /**
+   * React to a change of the brokers or of the leader of the partition. The metadata is read from
+   * the watch backed cache, so this is a field comparison unless a watch fired since the last call.
+   *
+   * A new producer is only built when none of the brokers the current one bootstraps from is alive.
+   * A leader change keeps the producer: it refreshes the topic's routing on the first send that
+   * fails with a stale leader.
+   */
+  private void checkBrockersChange() {
+    if (metadata == null || metadata.getVersion() == metadataVersion) {
+      return;
+    }
+    metadataVersion = metadata.getVersion();
+    Collection<HostPort> newBrokers = ImmutableSet.copyOf(metadata.getBrokers());
+    HostPort newLeader = metadata.getLeader(partition);
+
+    if (!connected || Collections.disjoint(brokers, newBrokers)) {
+      connect();
+    } else if (leader != null && !leader.equals(newLeader)) {
+      logger.info("Leader of " + topic + "/" + partition + " moved from " + leader + " to "
+          + newLeader);
+    }
+    leader = newLeader;
+  }
+
+  /**
+   * Called from the metadata listener as soon as zookeeper reports a change; opens the failover
+   * window when the leader of the partition moved or went away, before any write notices it.
+   */
+  private void leaderChanged(HostPort newLeader) {
+    if (watchedLeader != null && !watchedLeader.equals(newLeader) && failoverStart == 0) {
+      failoverStart = System.nanoTime();
+    }
+    watchedLeader = newLeader;
+  }
+
+  /**
+   * Called after every successful send; closes the failover window opened by a leader change.
+   */
+  private void sent() {
+    long start = failoverStart;
+    if (start != 0) {
+      failoverStart = 0;
+      lastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      logger.info("Writes to " + topic + "/" + partition + " recovered " + lastRecoveryMillis
+          + "ms after the leader change");
+    }
+  }
+
+  /**
+   * The time between the last leader change, as zookeeper reported it, and the first successful
+   * send after it, -1 if the leader never changed. It includes the time the writer took to notice.
+   */
+  public long getLastRecoveryMillis() {
+    return lastRecoveryMillis;
+  }
+
+  @Override
+  public void run() {
+
+    System.out.println(Thread.currentThread().getName() + " writing");
+    V message = messageGenerator.next();
+    try {
+      write(message);
+    } catch (Exception e) {
+      System.out.println("Exception " + e);
+      throw e;
+    }
+  }
+
+  public void write(V message) {
+    write(keyedMessage(message), partition, message);
+  }
+
+  /**
+   * Write the message to the given partition, whatever partition the writer was built with. The
+   * partition reaches the partitioner as an Integer partition key, without a message key, so
+   * partitioners such as SimplePartitioner route it without parsing anything.
+   */
+  public void write(V message, int partition) {
+    write(keyedMessage(message, partition), partition, message);
+  }
+
+  private void write(KeyedMessage<String, V> data, int bufferPartition, V message) {
+    checkBrockersChange();
+    if (accumulator != null) {
+      // messages routed by the partitioner (partition -1) share one buffer
+      accumulator.append(bufferPartition, data, sizeOf(message));
+    } else {
+      producerLock.readLock().lock();
+      try {
+        producer.send(data);
+      } finally {
+        producerLock.readLock().unlock();
+      }
+      sent();
+    }
+  }
+
+  /**
+   * Queue the message for a background sender and return at once. The future completes when the
+   * producer acknowledged the message, with the acks configured for this writer, or fails with the
+   * producer's exception. Blocks only when maxInFlight messages are already outstanding.
+   *
+   * With the scala engine and producer.type=async the producer only queues the message on its own
+   * send thread, so the future completes once the message is queued and a failed send is only
+   * logged by that thread; leave producer.type at sync when the future must mean delivered.
+   *
+   * Attach completion callbacks with {@link com.google.common.util.concurrent.Futures#addCallback}.
+   */
+  public ListenableFuture<Void> writeAsync(V message) {
+    return writeAsync(keyedMessage(message));
+  }
+
+  /**
+   * As {@link #writeAsync(Object)}, to the given partition as {@link #write(Object, int)} does.
+   */
+  public ListenableFuture<Void> writeAsync(V message, int partition) {
+    return writeAsync(keyedMessage(message, partition));
+  }
+
+  private ListenableFuture<Void> writeAsync(KeyedMessage<String, V> data) {
+    checkBrockersChange();
+    synchronized (this) {
+      if (asyncSender == null) {
+        asyncSender = new AsyncSender<String, V>(batchSender, maxInFlight, maxInFlight);
+      }
+    }
+    return asyncSender.submit(data);
+  }
+
+  private KeyedMessage<String, V> keyedMessage(V message, int partition) {
+    // Integer.valueOf is cached for the partition numbers we see
+    return new KeyedMessage<String, V>(topic, null, Integer.valueOf(partition), message);
+  }
+
+  private KeyedMessage<String, V> keyedMessage(V message) {
+    if (partition != -1) {
+      // we already know what partition to write to, the key is kept for the consumers
+      return new KeyedMessage<String, V>(topic, partitionString, Integer.valueOf(partition),
+          message);
+    }
+    String key = partitionKey(message);
+    return new KeyedMessage<String, V>(topic, key, partitionObject(message, key), message);
+  }
+
+  /**
+   * Send the messages buffered by the batching accumulator. A no-op when batching is off.
+   */
+  public void flush() {
+    if (accumulator != null) {
+      accumulator.flush();
+    }
+  }
+
+  public void setPartitionerClass(Class<? extends Partitioner> clazz) {
+    this.partitionerClass = clazz;
+  }
+
+  @Override
+  public void beforeRetry() {
+    System.out.println("we have to retry");
+    connect();
+  }
+
+  @Override
+  public void afterRetry() {
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (leaderListener != null)
+      metadata.removeListener(leaderListener);
+    // a failed last flush still releases the producer and the zookeeper session
+    try {
+      if (asyncSender != null)
+        asyncSender.close();
+      if (accumulator != null && producer != null)
+        accumulator.close();
+    } finally {
+      try {
+        if (producer != null)
+          producer.close();
+      } finally {
+        if (helper != null)
+          helper.close();
+      }
+    }
+  }
+
+  @Override
+  public void beforeStart() {
+
+    System.out.println("Check connection");
+    if (!connected) {
+      throw new FailedToSendMessageException("Kafka server is not running", new Throwable());
+    }
+
+  }
+
+  public abstract static class AbstractBuilder<V, B extends AbstractBuilder<V, B>> {
+    // required
+    private final String topic;
+
+    // Caller must provide one of the two.
+    private Collection<HostPort> brokerList;
+    private String zkURL;
+
+    // optional
+    private int partition = -1;
+    private Properties properties = new Properties();
+    private MessageGenerator<V> messageGenerator;
+    public Class<? extends Partitioner> partitionerClass = DefaultPartitioner.class;
+    private int batchSize;
+    private int batchBytes;
+    private long lingerMs;
+    private int maxInFlight = 1024;
+    private ProducerEngine engine = ProducerEngine.SCALA;
+    private WriterContext context;
+
+    protected AbstractBuilder(String zkURL, Collection<HostPort> brokerList, String topic,
+        MessageGenerator<V> messageGenerator) {
+      this.zkURL = zkURL;
+      this.brokerList = brokerList;
+      this.topic = topic;
+      this.messageGenerator = messageGenerator;
+    }
+
+    protected abstract B self();
+
+    public abstract AbstractKafkaWriter<V> build() throws Exception;
+
+    public B partition(int partition) {
+      this.partition = partition;
+      return self();
+    }
+
+    public B brokerList(Collection<HostPort> brokerList) {
+      this.brokerList = brokerList;
+      return self();
+    }
+
+    public B properties(Properties properties) {
+      this.properties = properties;
+      return self();
+    }
+
+    public B messageGenerator(MessageGenerator<V> messageGenerator) {
+      this.messageGenerator = messageGenerator;
+      this.partitionerClass = messageGenerator.getPartitionerClass();
+      return self();
+    }
+
+    /**
+     * Buffer up to batchSize messages per partition and send them with one request.
+     *
+     * A batch whose send fails is dropped whole, including the messages whose write already
+     * returned. The write that filled the batch throws; after a failed {@link #lingerMs(long)} send
+     * the next write or flush throws, without buffering its message. The same holds for
+     * {@link #batchBytes(int)} and {@link #lingerMs(long)}.
+     */
+    public B batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return self();
+    }
+
+    /**
+     * Send a partition's buffer once it holds batchBytes of message payload.
+     */
+    public B batchBytes(int batchBytes) {
+      this.batchBytes = batchBytes;
+      return self();
+    }
+
+    /**
+     * Send a partition's buffer once its oldest message has waited lingerMs.
+     */
+    public B lingerMs(long lingerMs) {
+      this.lingerMs = lingerMs;
+      return self();
+    }
+
+    /**
+     * The number of {@link AbstractKafkaWriter#writeAsync(Object)} messages that may be outstanding
+     * before writeAsync blocks.
+     */
+    public B maxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+      return self();
+    }
+
+    /**
+     * The producer implementation to send through, {@link ProducerEngine#SCALA} by default.
+     */
+    public B engine(ProducerEngine engine) {
+      this.engine = engine;
+      return self();
+    }
+
+    /**
+     * Share the zookeeper session and the producers of the context instead of opening new ones.
+     * The context's zookeeper replaces the one given to the constructor.
+     */
+    public B context(WriterContext context) {
+      this.context = context;
+      return self();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import kafka.producer.KeyedMessage;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Sends messages from a single background thread and completes a future per message once the
+ * producer returns for the batch holding it.
+ *
+ * At most maxInFlight messages can be queued or in flight; submit blocks the caller when the window
+ * is full. Queued messages are drained into batches of up to maxBatch messages, so many
+ * outstanding writes share one round trip instead of one thread each.
+ */
+class AsyncSender<K, V> implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(AsyncSender.class);
+
+  private final MessageAccumulator.Sender<K, V> sender;
+  private final int maxInFlight;
+  private final int maxBatch;
+  private final Semaphore window;
+  private final LinkedBlockingQueue<Pending<K, V>> queue;
+  private final Thread thread;
+  // written under the lock, so no message is queued after close() stopped the sender
+  private volatile boolean running;
+
+  AsyncSender(MessageAccumulator.Sender<K, V> sender, int maxInFlight, int maxBatch) {
+    this.sender = sender;
+    this.maxInFlight = maxInFlight;
+    this.maxBatch = maxBatch;
+    this.window = new Semaphore(maxInFlight);
+    this.queue = new LinkedBlockingQueue<Pending<K, V>>();
+    this.running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendLoop();
+      }
+    }, "kafka-writer-async-sender");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queue the message. The future completes when the broker acknowledged the message, or fails
+   * with the producer's exception.
+   */
+  ListenableFuture<Void> submit(KeyedMessage<K, V> message) {
+    if (!running) {
+      return Futures.immediateFailedFuture(new IllegalStateException("Sender is closed"));
+    }
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Futures.immediateFailedFuture(e);
+    }
+    Pending<K, V> pending = new Pending<K, V>(message);
+    synchronized (this) {
+      if (!running) {
+        window.release();
+        return Futures.immediateFailedFuture(new IllegalStateException("Sender is closed"));
+      }
+      queue.add(pending);
+    }
+    return pending.future;
+  }
+
+  /**
+   * Number of messages queued or waiting for an acknowledgement.
+   */
+  int inFlight() {
+    return maxInFlight - window.availablePermits();
+  }
+
+  private void sendLoop() {
+    List<Pending<K, V>> batch = new ArrayList<Pending<K, V>>(maxBatch);
+    List<KeyedMessage<K, V>> messages = new ArrayList<KeyedMessage<K, V>>(maxBatch);
+    while (running || !queue.isEmpty()) {
+      try {
+        Pending<K, V> first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, maxBatch - 1);
+        for (Pending<K, V> pending : batch) {
+          messages.add(pending.message);
+        }
+        try {
+          sender.send(messages);
+          for (Pending<K, V> pending : batch) {
+            pending.future.set(null);
+          }
+        } catch (RuntimeException e) {
+          logger.error("Failed to send " + batch.size() + " messages", e);
+          for (Pending<K, V> pending : batch) {
+            pending.future.setException(e);
+          }
+        }
+      } catch (InterruptedException e) {
+        break;
+      } finally {
+        window.release(batch.size());
+        batch.clear();
+        messages.clear();
+      }
+    }
+    // anything still queued after an interrupt will never be sent
+    Pending<K, V> pending;
+    while ((pending = queue.poll()) != null) {
+      pending.future.setException(new IllegalStateException("Sender is closed"));
+      window.release();
+    }
+  }
+
+  /**
+   * Send every queued message, then stop the sender thread.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      running = false;
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      thread.interrupt();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class Pending<K, V> {
+    final KeyedMessage<K, V> message;
+    final SettableFuture<Void> future = SettableFuture.create();
+
+    Pending(KeyedMessage<K, V> message) {
+      this.message = message;
+    }
+  }
+}
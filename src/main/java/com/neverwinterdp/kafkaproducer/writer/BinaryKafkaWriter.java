@@ -0,0 +1,59 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.Collection;
+
+import com.neverwinterdp.kafkaproducer.messagegenerator.TemplateMessageGenerator;
+import com.neverwinterdp.kafkaproducer.partitioner.EnvelopePartitioner;
+import com.neverwinterdp.kafkaproducer.util.BytesEncoder;
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+
+/**
+ * Writes byte[] messages as they are, through {@link BytesEncoder}. Without a fixed partition the
+ * messages have no key and the producer spreads them over the partitions, unless the partitioner is
+ * an {@link EnvelopePartitioner}, which is given the message to read its partition from.
+ */
+public class BinaryKafkaWriter extends AbstractKafkaWriter<byte[]> {
+
+  private boolean routeByMessage;
+
+  public BinaryKafkaWriter(Builder builder) throws Exception {
+    super(builder, BytesEncoder.class);
+    routeByMessage = EnvelopePartitioner.class.isAssignableFrom(builder.partitionerClass);
+  }
+
+  @Override
+  protected String partitionKey(byte[] message) {
+    return null;
+  }
+
+  @Override
+  protected Object partitionObject(byte[] message, String key) {
+    return routeByMessage ? message : key;
+  }
+
+  @Override
+  protected int sizeOf(byte[] message) {
+    return message.length;
+  }
+
+  public static class Builder extends AbstractBuilder<byte[], Builder> {
+
+    public Builder(String zkURL, String topic) {
+      super(zkURL, null, topic, new TemplateMessageGenerator(topic, 0, 0));
+    }
+
+    public Builder(Collection<HostPort> brokerList, String topic) {
+      super(null, brokerList, topic, new TemplateMessageGenerator(topic, 0, 0));
+    }
+
+    @Override
+    protected Builder self() {
+      return this;
+    }
+
+    @Override
+    public BinaryKafkaWriter build() throws Exception {
+      return new BinaryKafkaWriter(this);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import kafka.common.FailedToSendMessageException;
+import kafka.producer.KeyedMessage;
+import kafka.producer.Partitioner;
+import kafka.serializer.Encoder;
+import kafka.serializer.StringEncoder;
+import kafka.utils.VerifiableProperties;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * A {@link MessageProducer} on top of the java producer.
+ *
+ * The java producer takes bytes and an explicit partition, so the writer's encoder and partitioner
+ * are applied here: a message whose partition key is an Integer goes to that partition, any other
+ * partition key goes through the partitioner, and a message without one is placed by the producer.
+ * A list is sent as a whole before waiting for the acknowledgements, which the producer pipelines.
+ *
+ * The KafkaProducer itself is owned by the writer or borrowed from a {@link WriterContext}.
+ */
+class JavaMessageProducer<V> implements MessageProducer<V> {
+
+  private KafkaProducer producer;
+  private Encoder<V> encoder;
+  private StringEncoder keyEncoder;
+  private Partitioner partitioner;
+  private WriterContext context;
+
+  JavaMessageProducer(Properties props, Encoder<V> encoder, Partitioner partitioner,
+      WriterContext context) {
+    this.context = context;
+    if (context != null) {
+      this.producer = context.acquireJavaProducer(props);
+    } else {
+      this.producer = new KafkaProducer(props);
+    }
+    this.encoder = encoder;
+    this.keyEncoder = new StringEncoder(new VerifiableProperties());
+    this.partitioner = partitioner;
+  }
+
+  @Override
+  public void send(KeyedMessage<String, V> message) {
+    await(producer.send(record(message)));
+  }
+
+  @Override
+  public void send(List<KeyedMessage<String, V>> messages) {
+    List<Future<RecordMetadata>> futures = new ArrayList<Future<RecordMetadata>>(messages.size());
+    for (KeyedMessage<String, V> message : messages) {
+      futures.add(producer.send(record(message)));
+    }
+    for (Future<RecordMetadata> future : futures) {
+      await(future);
+    }
+  }
+
+  private ProducerRecord record(KeyedMessage<String, V> message) {
+    String key = message.key();
+    Object partitionKey = message.partitionKey();
+    byte[] value = encoder.toBytes(message.message());
+    if (partitionKey == null) {
+      return new ProducerRecord(message.topic(), value);
+    }
+    Integer target;
+    if (partitionKey instanceof Integer) {
+      target = (Integer) partitionKey;
+    } else {
+      int numPartitions = producer.partitionsFor(message.topic()).size();
+      target = partitioner.partition(partitionKey, numPartitions);
+    }
+    return new ProducerRecord(message.topic(), target, key == null ? null : keyEncoder.toBytes(key),
+        value);
+  }
+
+  private void await(Future<RecordMetadata> future) {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      throw new FailedToSendMessageException(e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FailedToSendMessageException("Interrupted while waiting for an ack", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (context != null) {
+      context.release(producer);
+    } else {
+      producer.close();
+    }
+  }
+}
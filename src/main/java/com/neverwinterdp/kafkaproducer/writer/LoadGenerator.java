@@ -0,0 +1,182 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.neverwinterdp.kafkaproducer.messagegenerator.MessageGenerator;
+import com.neverwinterdp.kafkaproducer.util.LatencyHistogram;
+import com.neverwinterdp.kafkaproducer.util.TokenBucket;
+
+/**
+ * Drives a set of writers at an aggregate target rate from a small, fixed number of threads.
+ *
+ * The threads share one {@link TokenBucket} whose rate follows a {@link RateProfile}; each thread
+ * takes the writers assigned to it in turn, waits for its next permit and hands the message to
+ * {@link AbstractKafkaWriter#writeAsync(Object)}, so the pacing threads never wait for acks.
+ *
+ * The latency of every send is recorded per writer from the time the bucket scheduled it, not from
+ * the time it was actually handed to the writer. When a send stalls, for instance during a leader
+ * failover, the messages queued behind it are charged for the wait too instead of being silently
+ * sent late.
+ */
+public class LoadGenerator {
+
+  private static final Logger logger = Logger.getLogger(LoadGenerator.class);
+  // latencies in microseconds, up to an hour at better than 1% precision
+  private static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final int SUB_BUCKET_BITS = 8;
+
+  public enum Unit {
+    MESSAGES, BYTES
+  }
+
+  private final RateProfile profile;
+  private final Unit unit;
+  private final int senderThreads;
+  private final List<Slot<?>> slots;
+  private final AtomicLong sent;
+  private final AtomicLong acked;
+  private final AtomicLong failed;
+  private final AtomicLong bytes;
+
+  public LoadGenerator(RateProfile profile, Unit unit, int senderThreads) {
+    this.profile = profile;
+    this.unit = unit;
+    this.senderThreads = senderThreads;
+    this.slots = new ArrayList<>();
+    this.sent = new AtomicLong();
+    this.acked = new AtomicLong();
+    this.failed = new AtomicLong();
+    this.bytes = new AtomicLong();
+  }
+
+  public <V> void addWriter(AbstractKafkaWriter<V> writer, MessageGenerator<V> generator) {
+    slots.add(new Slot<V>(writer, generator));
+  }
+
+  /**
+   * Send for the duration, then wait up to the same duration for the outstanding acks.
+   */
+  public void run(long duration, TimeUnit timeUnit) throws InterruptedException {
+    final long start = System.nanoTime();
+    final long end = start + timeUnit.toNanos(duration);
+    // never drop the backlog, a stalled sender must catch up on its schedule to be measured
+    final TokenBucket bucket = new TokenBucket(profile.rateAt(0), Long.MAX_VALUE);
+    int threads = Math.min(senderThreads, slots.size());
+    ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    logger.info("Sending to " + slots.size() + " writers from " + threads + " threads at "
+        + profile + " " + unit + "/s");
+
+    // follow the profile
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long now;
+        while ((now = System.nanoTime()) < end) {
+          bucket.setRate(profile.rateAt(now - start));
+          TokenBucket.awaitUntil(now + TimeUnit.MILLISECONDS.toNanos(10));
+        }
+      }
+    });
+    for (int i = 0; i < threads; i++) {
+      final List<Slot<?>> mine = new ArrayList<>();
+      for (int j = i; j < slots.size(); j += threads) {
+        mine.add(slots.get(j));
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          int next = 0;
+          while (System.nanoTime() < end && !Thread.currentThread().isInterrupted()) {
+            mine.get(next).send(bucket);
+            next = (next + 1) % mine.size();
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(duration, timeUnit);
+    long drainUntil = System.nanoTime() + timeUnit.toNanos(duration);
+    while (acked.get() + failed.get() < sent.get() && System.nanoTime() < drainUntil) {
+      Thread.sleep(10);
+    }
+    long elapsed = System.nanoTime() - start;
+    logger.info("Sent " + sent + " messages, " + bytes + " bytes, " + failed + " failed, in "
+        + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+  }
+
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getAcked() {
+    return acked.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * @return the latencies of all the writers, in microseconds from the scheduled send time
+   */
+  public LatencyHistogram getHistogram() {
+    LatencyHistogram merged = newHistogram();
+    for (Slot<?> slot : slots) {
+      merged.add(slot.histogram);
+    }
+    return merged;
+  }
+
+  public static LatencyHistogram newHistogram() {
+    return new LatencyHistogram(HIGHEST_LATENCY_MICROS, SUB_BUCKET_BITS);
+  }
+
+  private class Slot<V> {
+    final AbstractKafkaWriter<V> writer;
+    final MessageGenerator<V> generator;
+    final LatencyHistogram histogram = newHistogram();
+
+    Slot(AbstractKafkaWriter<V> writer, MessageGenerator<V> generator) {
+      this.writer = writer;
+      this.generator = generator;
+    }
+
+    void send(TokenBucket bucket) {
+      V message = generator.next();
+      int size = writer.sizeOf(message);
+      final long scheduled = bucket.acquire(unit == Unit.BYTES ? size : 1);
+      sent.incrementAndGet();
+      bytes.addAndGet(size);
+      Futures.addCallback(writer.writeAsync(message), new FutureCallback<Void>() {
+        @Override
+        public void onSuccess(Void result) {
+          record();
+          acked.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          record();
+          failed.incrementAndGet();
+        }
+
+        private void record() {
+          histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+        }
+      });
+    }
+  }
+}
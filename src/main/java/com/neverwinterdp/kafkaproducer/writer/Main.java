@@ -1,5 +1,8 @@
 package com.neverwinterdp.kafkaproducer.writer;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -9,6 +12,9 @@ import java.util.concurrent.TimeUnit;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
 
+import com.neverwinterdp.kafkaproducer.messagegenerator.DefaultMessageGenerator;
+import com.neverwinterdp.kafkaproducer.messagegenerator.TemplateMessageGenerator;
+import com.neverwinterdp.kafkaproducer.util.LatencyHistogram;
 import com.neverwinterdp.kafkaproducer.util.PropertyUtils;
 import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
 
@@ -25,6 +31,12 @@ public class Main {
   private String topic;
   private int partitions;
   private int replicationFactor;
+  // load mode, used when a rate or steps is configured
+  private RateProfile rateProfile;
+  private LoadGenerator.Unit rateUnit;
+  private int senderThreads;
+  private String histogramFile;
+  private boolean binary;
 
   public static void main(String[] args) throws Exception {
     BasicConfigurator.configure();
@@ -47,18 +59,53 @@ public class Main {
     replicationFactor = Integer.parseInt(props.getProperty("replication-factor"));
     runPeriod = Integer.parseInt(props.getProperty("run-duration"));
     zkURL = props.getProperty("zookeeper");
+    initRateProfile(props);
     // ensure topics, partitions exists if not create them
     try (ZookeeperHelper helper = new ZookeeperHelper(zkURL)) {
       helper.createTopic(topic, partitions, replicationFactor);
     }
   }
 
+  private void initRateProfile(Properties props) {
+    // rates in MB/s are paced in bytes
+    double scale = 1;
+    rateUnit = LoadGenerator.Unit.MESSAGES;
+    if ("MB".equalsIgnoreCase(props.getProperty("rate-unit", "msgs"))) {
+      scale = 1024 * 1024;
+      rateUnit = LoadGenerator.Unit.BYTES;
+    }
+    senderThreads = Integer.parseInt(props.getProperty("sender-threads", "2"));
+    histogramFile = props.getProperty("histogram-file", "latency.hgrm");
+    // byte[] writers fed by the allocation free TemplateMessageGenerator
+    binary = Boolean.parseBoolean(props.getProperty("binary", "false"));
+    if (props.getProperty("steps") != null) {
+      StringBuilder steps = new StringBuilder();
+      for (String step : props.getProperty("steps").split(",")) {
+        String[] parts = step.trim().split(":");
+        steps.append(steps.length() == 0 ? "" : ",").append(Double.parseDouble(parts[0]) * scale)
+            .append(':').append(parts[1]);
+      }
+      rateProfile = RateProfile.steps(steps.toString());
+    } else if (props.getProperty("rate") != null) {
+      double rate = Double.parseDouble(props.getProperty("rate")) * scale;
+      long rampUp = Long.parseLong(props.getProperty("ramp-up", "0"));
+      rateProfile = rampUp > 0 ? RateProfile.rampUp(rate, rampUp) : RateProfile.constant(rate);
+    }
+  }
+
   private void generate() throws Exception {
+    if (rateProfile != null) {
+      generateLoad();
+      return;
+    }
     ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(writers);
+    // one zookeeper session and one producer for all the writers
+    WriterContext context = new WriterContext(zkURL);
     // TODO wrap in retry runnable
     KafkaWriter writer;
     for (int i = 0; i < writers; i++) {
-      writer = new KafkaWriter.Builder(zkURL, topic).partition(i % partitions).build();
+      writer =
+          new KafkaWriter.Builder(zkURL, topic).partition(i % partitions).context(context).build();
       final ScheduledFuture<?> timeHandle =
           scheduler.scheduleAtFixedRate(writer, 0, delay, TimeUnit.SECONDS);
 
@@ -73,5 +120,50 @@ public class Main {
     } catch (InterruptedException e) {
     }
     logger.info(scheduler.shutdownNow());
+    context.close();
+  }
+
+  /**
+   * Pace all the writers from a few sender threads at the configured rate instead of one scheduled
+   * write per writer per delay.
+   */
+  private void generateLoad() throws Exception {
+    WriterContext context = new WriterContext(zkURL);
+    LoadGenerator generator = new LoadGenerator(rateProfile, rateUnit, senderThreads);
+    List<AbstractKafkaWriter<?>> kafkaWriters = new ArrayList<>();
+    for (int i = 0; i < writers; i++) {
+      int partition = i % partitions;
+      if (binary) {
+        BinaryKafkaWriter writer =
+            new BinaryKafkaWriter.Builder(zkURL, topic).partition(partition).context(context)
+                .build();
+        kafkaWriters.add(writer);
+        generator.addWriter(writer, new TemplateMessageGenerator(topic, partition, i));
+      } else {
+        KafkaWriter writer =
+            new KafkaWriter.Builder(zkURL, topic).partition(partition).context(context).build();
+        kafkaWriters.add(writer);
+        generator.addWriter(writer, new DefaultMessageGenerator(topic, partition, i));
+      }
+    }
+    try {
+      generator.run(runPeriod, TimeUnit.SECONDS);
+      logger.info("Sent " + generator.getSent() + " acked " + generator.getAcked() + " failed "
+          + generator.getFailed() + ", " + generator.getSent() / Math.max(1, runPeriod)
+          + " msg/s");
+      LatencyHistogram histogram = generator.getHistogram();
+      logger.info("Latency (us) p50 " + histogram.getValueAtPercentile(50) + " p99 "
+          + histogram.getValueAtPercentile(99) + " p99.9 " + histogram.getValueAtPercentile(99.9)
+          + " max " + histogram.getMax());
+      try (PrintStream out = new PrintStream(histogramFile, "UTF-8")) {
+        histogram.write(out);
+      }
+      logger.info("Latency histogram written to " + histogramFile);
+    } finally {
+      for (AbstractKafkaWriter<?> writer : kafkaWriters) {
+        writer.close();
+      }
+      context.close();
+    }
   }
 }
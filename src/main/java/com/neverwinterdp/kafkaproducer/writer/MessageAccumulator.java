@@ -0,0 +1,162 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import kafka.common.FailedToSendMessageException;
+import kafka.producer.KeyedMessage;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Buffers messages per partition and hands them to a {@link Sender} as one list when a buffer
+ * reaches maxMessages or maxBytes, or when its first message is older than lingerMs.
+ *
+ * Batches are sent while holding the accumulator lock, so messages for a partition reach the
+ * sender in the order they were appended.
+ *
+ * A batch whose send fails is dropped, with the messages appended before the one that filled it.
+ * A send that fills the buffer throws at once; a failed linger send is reported by the next append
+ * or flush, in a FailedToSendMessageException naming the dropped messages.
+ */
+class MessageAccumulator<K, V> implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(MessageAccumulator.class);
+
+  interface Sender<K, V> {
+    void send(List<KeyedMessage<K, V>> batch);
+  }
+
+  private final Sender<K, V> sender;
+  private final int maxMessages;
+  private final long maxBytes;
+  private final long lingerMs;
+  private final Map<Integer, Batch<K, V>> batches;
+  private ScheduledExecutorService lingerTimer;
+  private RuntimeException lingerError;
+  private int lingerDropped;
+
+  MessageAccumulator(Sender<K, V> sender, int maxMessages, long maxBytes, long lingerMs) {
+    this.sender = sender;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.lingerMs = lingerMs;
+    this.batches = new LinkedHashMap<Integer, Batch<K, V>>();
+    if (lingerMs > 0) {
+      lingerTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "message-accumulator-linger");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      long period = Math.max(1, lingerMs / 2);
+      lingerTimer.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          flushExpired();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Add the message to the buffer of its partition, sending the buffer if it is full. An error
+   * raised by a linger triggered send is reported here instead, and the message is not buffered.
+   */
+  synchronized void append(int partition, KeyedMessage<K, V> message, int size) {
+    throwLingerError("this message was not buffered");
+    Batch<K, V> batch = batches.get(partition);
+    if (batch == null) {
+      batch = new Batch<K, V>(System.currentTimeMillis());
+      batches.put(partition, batch);
+    }
+    batch.messages.add(message);
+    batch.bytes += size;
+    if (batch.messages.size() >= maxMessages || batch.bytes >= maxBytes) {
+      batches.remove(partition);
+      sender.send(batch.messages);
+    }
+  }
+
+  /**
+   * Send every buffered message.
+   */
+  synchronized void flush() {
+    throwLingerError("the buffered messages were not sent");
+    Iterator<Batch<K, V>> iterator = batches.values().iterator();
+    while (iterator.hasNext()) {
+      Batch<K, V> batch = iterator.next();
+      iterator.remove();
+      sender.send(batch.messages);
+    }
+  }
+
+  synchronized int size() {
+    int size = 0;
+    for (Batch<K, V> batch : batches.values()) {
+      size += batch.messages.size();
+    }
+    return size;
+  }
+
+  private synchronized void flushExpired() {
+    long now = System.currentTimeMillis();
+    Iterator<Batch<K, V>> iterator = batches.values().iterator();
+    while (iterator.hasNext()) {
+      Batch<K, V> batch = iterator.next();
+      if (now - batch.createdAt < lingerMs) {
+        continue;
+      }
+      iterator.remove();
+      try {
+        sender.send(batch.messages);
+      } catch (RuntimeException e) {
+        logger.error("Failed to send " + batch.messages.size() + " lingering messages", e);
+        lingerError = e;
+        lingerDropped += batch.messages.size();
+      }
+    }
+  }
+
+  private void throwLingerError(String state) {
+    if (lingerError != null) {
+      RuntimeException e = lingerError;
+      int dropped = lingerDropped;
+      lingerError = null;
+      lingerDropped = 0;
+      throw new FailedToSendMessageException("Failed to send " + dropped
+          + " earlier lingering messages, they were dropped; " + state, e);
+    }
+  }
+
+  /**
+   * Flush the buffered messages and stop the linger timer.
+   */
+  @Override
+  public void close() {
+    if (lingerTimer != null) {
+      lingerTimer.shutdownNow();
+    }
+    flush();
+  }
+
+  private static class Batch<K, V> {
+    final List<KeyedMessage<K, V>> messages = new ArrayList<KeyedMessage<K, V>>();
+    final long createdAt;
+    long bytes;
+
+    Batch(long createdAt) {
+      this.createdAt = createdAt;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.List;
+
+import kafka.producer.KeyedMessage;
+
+/**
+ * What a writer needs from a producer engine. Both sends block until the messages are
+ * acknowledged (as configured by the acks) and throw FailedToSendMessageException on failure.
+ */
+interface MessageProducer<V> {
+
+  void send(KeyedMessage<String, V> message);
+
+  void send(List<KeyedMessage<String, V>> messages);
+
+  void close();
+}
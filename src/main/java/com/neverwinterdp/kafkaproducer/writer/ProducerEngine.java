@@ -0,0 +1,16 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+/**
+ * The producer implementation a writer sends through.
+ */
+public enum ProducerEngine {
+  /**
+   * kafka.javaapi.producer.Producer. One blocking request per send when producer.type=sync.
+   */
+  SCALA,
+  /**
+   * org.apache.kafka.clients.producer.KafkaProducer. Batches and pipelines requests on its own I/O
+   * thread; the writer only waits for the acknowledgements.
+   */
+  JAVA
+}
@@ -0,0 +1,81 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The target rate of a load run as a function of the time since it started.
+ */
+public abstract class RateProfile {
+
+  /**
+   * @return the target rate, in messages or bytes per second, elapsedNanos after the start
+   */
+  public abstract double rateAt(long elapsedNanos);
+
+  public static RateProfile constant(final double rate) {
+    return new RateProfile() {
+      @Override
+      public double rateAt(long elapsedNanos) {
+        return rate;
+      }
+
+      @Override
+      public String toString() {
+        return "constant " + rate;
+      }
+    };
+  }
+
+  /**
+   * Grow linearly from a tenth of the rate to the full rate over rampUpSeconds, then hold.
+   */
+  public static RateProfile rampUp(final double rate, long rampUpSeconds) {
+    final long rampNanos = TimeUnit.SECONDS.toNanos(rampUpSeconds);
+    return new RateProfile() {
+      @Override
+      public double rateAt(long elapsedNanos) {
+        if (elapsedNanos >= rampNanos) {
+          return rate;
+        }
+        return rate * (0.1 + 0.9 * elapsedNanos / rampNanos);
+      }
+
+      @Override
+      public String toString() {
+        return "ramp up to " + rate + " over " + TimeUnit.NANOSECONDS.toSeconds(rampNanos) + "s";
+      }
+    };
+  }
+
+  /**
+   * Hold each rate for its duration, in order; the last rate is held until the end of the run.
+   * The steps are given as "rate:seconds,rate:seconds,...".
+   */
+  public static RateProfile steps(String steps) {
+    final List<double[]> parsed = new ArrayList<>();
+    long end = 0;
+    for (String step : steps.split(",")) {
+      String[] parts = step.trim().split(":");
+      end += TimeUnit.SECONDS.toNanos(Long.parseLong(parts[1].trim()));
+      parsed.add(new double[] { Double.parseDouble(parts[0].trim()), end });
+    }
+    return new RateProfile() {
+      @Override
+      public double rateAt(long elapsedNanos) {
+        for (double[] step : parsed) {
+          if (elapsedNanos < step[1]) {
+            return step[0];
+          }
+        }
+        return parsed.get(parsed.size() - 1)[0];
+      }
+
+      @Override
+      public String toString() {
+        return "steps " + parsed.size();
+      }
+    };
+  }
+}
@@ -0,0 +1,46 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.List;
+import java.util.Properties;
+
+import kafka.javaapi.producer.Producer;
+import kafka.producer.KeyedMessage;
+import kafka.producer.ProducerConfig;
+
+/**
+ * A {@link MessageProducer} on top of the scala producer, owned by the writer or borrowed from a
+ * {@link WriterContext}.
+ */
+class ScalaMessageProducer<V> implements MessageProducer<V> {
+
+  private Producer<String, V> producer;
+  private WriterContext context;
+
+  ScalaMessageProducer(Properties props, WriterContext context) {
+    this.context = context;
+    if (context != null) {
+      producer = context.acquireScalaProducer(props);
+    } else {
+      producer = new Producer<String, V>(new ProducerConfig(props));
+    }
+  }
+
+  @Override
+  public void send(KeyedMessage<String, V> message) {
+    producer.send(message);
+  }
+
+  @Override
+  public void send(List<KeyedMessage<String, V>> messages) {
+    producer.send(messages);
+  }
+
+  @Override
+  public void close() {
+    if (context != null) {
+      context.release(producer);
+    } else {
+      producer.close();
+    }
+  }
+}
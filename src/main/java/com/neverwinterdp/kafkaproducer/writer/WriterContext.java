@@ -0,0 +1,138 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import kafka.javaapi.producer.Producer;
+import kafka.producer.ProducerConfig;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Connections shared by many writers: one zookeeper session, with its metadata caches, and one
+ * producer per distinct producer configuration. Writers built with a context become handles on
+ * these; a producer is closed when the last writer using it releases it, the zookeeper session when
+ * the context is closed.
+ */
+public class WriterContext implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(WriterContext.class);
+
+  private final String zkURL;
+  private final ZookeeperHelper helper;
+  private final Map<String, Shared> producers;
+  private final Map<Object, Shared> byProducer;
+
+  public WriterContext(String zkURL) {
+    this.zkURL = zkURL;
+    this.helper = zkURL == null ? null : new ZookeeperHelper(zkURL);
+    this.producers = new HashMap<String, Shared>();
+    this.byProducer = new IdentityHashMap<Object, Shared>();
+  }
+
+  public String getZkURL() {
+    return zkURL;
+  }
+
+  public ZookeeperHelper getZookeeperHelper() {
+    return helper;
+  }
+
+  /**
+   * Number of distinct producers currently open.
+   */
+  public synchronized int getProducerCount() {
+    return producers.size();
+  }
+
+  @SuppressWarnings("unchecked")
+  synchronized <V> Producer<String, V> acquireScalaProducer(Properties props) {
+    String key = key(ProducerEngine.SCALA, props);
+    Shared shared = producers.get(key);
+    if (shared == null) {
+      shared = new Shared(key, new Producer<String, V>(new ProducerConfig(props)));
+      register(shared);
+    }
+    shared.references++;
+    return (Producer<String, V>) shared.producer;
+  }
+
+  synchronized KafkaProducer acquireJavaProducer(Properties props) {
+    String key = key(ProducerEngine.JAVA, props);
+    Shared shared = producers.get(key);
+    if (shared == null) {
+      shared = new Shared(key, new KafkaProducer(props));
+      register(shared);
+    }
+    shared.references++;
+    return (KafkaProducer) shared.producer;
+  }
+
+  /**
+   * Give back a producer obtained from this context, closing it if no other writer uses it.
+   */
+  synchronized void release(Object producer) {
+    Shared shared = byProducer.get(producer);
+    if (shared == null) {
+      return;
+    }
+    shared.references--;
+    if (shared.references == 0) {
+      producers.remove(shared.key);
+      byProducer.remove(producer);
+      close(producer);
+    }
+  }
+
+  private void register(Shared shared) {
+    logger.info("New shared producer " + shared.key);
+    producers.put(shared.key, shared);
+    byProducer.put(shared.producer, shared);
+  }
+
+  private static String key(ProducerEngine engine, Properties props) {
+    return engine + new TreeMap<Object, Object>(props).toString();
+  }
+
+  private static void close(Object producer) {
+    if (producer instanceof KafkaProducer) {
+      ((KafkaProducer) producer).close();
+    } else {
+      ((Producer<?, ?>) producer).close();
+    }
+  }
+
+  /**
+   * Close every producer still open and the zookeeper session.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    for (Shared shared : producers.values()) {
+      close(shared.producer);
+    }
+    producers.clear();
+    byProducer.clear();
+    if (helper != null) {
+      helper.close();
+    }
+  }
+
+  private static class Shared {
+    final String key;
+    final Object producer;
+    int references;
+
+    Shared(String key, Object producer) {
+      this.key = key;
+      this.producer = producer;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.neverwinterdp.kafkaproducer.messagegenerator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestTemplateMessageGenerator {
+
+  @Test
+  public void testSameRecordsAsDefaultGenerator() {
+    DefaultMessageGenerator expected = new DefaultMessageGenerator("topic-1", 3, 7);
+    TemplateMessageGenerator generator = new TemplateMessageGenerator("topic-1", 3, 7);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(withoutTime(expected.next()),
+          withoutTime(new String(generator.next(), Charsets.UTF_8)));
+    }
+  }
+
+  @Test
+  public void testTimeMatchesSimpleDateFormat() {
+    TemplateMessageGenerator generator = new TemplateMessageGenerator("topic", 0, 0);
+    SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss:SSSS");
+    Random random = new Random(0);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 10000; i++) {
+      long millis = now + (long) (random.nextDouble() * 400L * 24 * 3600 * 1000);
+      generator.updateTime(millis);
+      assertArrayEquals(dateFormat.format(new Date(millis)).getBytes(Charsets.UTF_8),
+          generator.getTime());
+    }
+  }
+
+  @Test
+  public void testNextIntoBuffer() {
+    TemplateMessageGenerator generator = new TemplateMessageGenerator("topic", 1, 2);
+    byte[] buffer = new byte[generator.maxLength() + 5];
+    int length = generator.next(buffer, 5);
+    String message = new String(buffer, 5, length, Charsets.UTF_8);
+    assertEquals("TOPIC:topic, PARTITION:1, WriterID:2, SEQUENCE:1", withoutTime(message));
+    assertEquals(", TIME:".length() + 13, length - withoutTime(message).length());
+  }
+
+  private String withoutTime(String message) {
+    return message.substring(0, message.indexOf(", TIME:"));
+  }
+}
@@ -0,0 +1,104 @@
+package com.neverwinterdp.kafkaproducer.partitioner;
+
+import java.lang.management.ManagementFactory;
+
+import kafka.producer.Partitioner;
+
+import org.apache.log4j.Logger;
+
+import com.neverwinterdp.kafkaproducer.messagegenerator.DefaultMessageGenerator;
+
+/**
+ * Routes the same messages with the old substring parsing, the new in place parsing and an Integer
+ * partition key, and prints the time and the bytes allocated per call.
+ *
+ * Not a test: run it by hand, it makes millions of calls and only reports timings.
+ */
+public class SimplePartitionerBenchmark {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(SimplePartitionerBenchmark.class);
+  private static final int CALLS = 2000000;
+  private static final int PARTITIONS = 8;
+
+  private Partitioner partitioner = new SimplePartitioner(null);
+
+  public static void main(String[] args) {
+    new SimplePartitionerBenchmark().run();
+  }
+
+  private void run() {
+    final String[] keys = new String[PARTITIONS];
+    final Integer[] partitionKeys = new Integer[PARTITIONS];
+    for (int i = 0; i < PARTITIONS; i++) {
+      keys[i] = new DefaultMessageGenerator("benchmark", i, 1).next();
+      partitionKeys[i] = i;
+    }
+    Routing substring = new Routing() {
+      @Override
+      public int partition(int i) {
+        return substringPartition(keys[i % PARTITIONS]);
+      }
+    };
+    Routing string = new Routing() {
+      @Override
+      public int partition(int i) {
+        return partitioner.partition(keys[i % PARTITIONS], PARTITIONS);
+      }
+    };
+    Routing integer = new Routing() {
+      @Override
+      public int partition(int i) {
+        return partitioner.partition(partitionKeys[i % PARTITIONS], PARTITIONS);
+      }
+    };
+    // warm up, then measure
+    for (int run = 0; run < 2; run++) {
+      measure("substring key", substring, run == 1);
+      measure("string key", string, run == 1);
+      measure("Integer key", integer, run == 1);
+    }
+  }
+
+  private void measure(String name, Routing routing, boolean report) {
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < CALLS; i++) {
+      sum += routing.partition(i);
+    }
+    long elapsed = System.nanoTime() - start;
+    allocated = allocatedBytes() - allocated;
+    // every partition is hit equally often
+    if (sum != (long) CALLS / PARTITIONS * (PARTITIONS * (PARTITIONS - 1) / 2)) {
+      throw new IllegalStateException(name + " routed the messages unevenly, sum " + sum);
+    }
+    if (report) {
+      logger.info(String.format("%-14s %6.1f ns/call %6.1f bytes/call", name, (double) elapsed
+          / CALLS, (double) allocated / CALLS));
+    }
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+          .currentThread().getId());
+    }
+    return 0;
+  }
+
+  // what SimplePartitioner used to do
+  private static int substringPartition(String keyString) {
+    keyString = keyString.substring(keyString.indexOf("PARTITION"));
+    keyString =
+        keyString.substring(keyString.indexOf("PARTITION:") + 10, keyString.indexOf(","));
+    return Integer.parseInt(keyString);
+  }
+
+  private interface Routing {
+    int partition(int i);
+  }
+}
@@ -0,0 +1,44 @@
+package com.neverwinterdp.kafkaproducer.partitioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.messagegenerator.DefaultMessageGenerator;
+
+public class TestSimplePartitioner {
+
+  private SimplePartitioner partitioner = new SimplePartitioner(null);
+
+  @Test
+  public void testGeneratedMessageKey() {
+    for (int i = 0; i < 12; i++) {
+      String message = new DefaultMessageGenerator("topic", i, 3).next();
+      assertEquals(i, partitioner.partition(message, 16));
+    }
+  }
+
+  @Test
+  public void testIntegerAndNumberKeys() {
+    assertEquals(3, partitioner.partition(3, 4));
+    assertEquals(3, partitioner.partition("3", 4));
+    assertEquals(12, partitioner.partition("12", 16));
+  }
+
+  @Test
+  public void testPartitionOutOfRange() {
+    assertEquals(0, partitioner.partition(4, 4));
+    assertEquals(1, partitioner.partition(5, 4));
+    assertEquals(2, partitioner.partition("PARTITION:10, WriterID:1", 4));
+  }
+
+  @Test
+  public void testKeyWithoutPartition() {
+    try {
+      partitioner.partition("TOPIC:topic, WriterID:1", 4);
+      fail("expected a NumberFormatException");
+    } catch (NumberFormatException e) {
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+public class TestBackfillScanner {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestBackfillScanner.class);
+  private static final int MESSAGES = 20000;
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  private String topic;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    // writes "0" to "MESSAGES - 1"
+    TestUtils.writeRandomData(topic, kafkaPort, MESSAGES);
+  }
+
+  @Test
+  public void testOrderedScan() throws Exception {
+    final List<String> messages = new ArrayList<>();
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      BackfillScanner scanner = new BackfillScanner(context, topic, 0, 4);
+      scanner.setRangeSize(1000);
+      scanner.setFetchSize(8 * 1024);
+      long read = scanner.scan(new BackfillScanner.PayloadHandler() {
+        @Override
+        public void onMessage(ByteBuffer payload, long offset) {
+          assertEquals(messages.size(), offset);
+          messages.add(KafkaReader.decode(payload));
+        }
+      });
+      assertEquals(MESSAGES, read);
+      // one connection per worker, and one for the offsets that the first worker reuses
+      assertTrue(context.getCreatedCount() <= 4);
+      assertEquals(0, context.getBorrowedCount());
+      assertTrue(scanner.getFetchRequests() >= MESSAGES / 1000);
+    }
+    assertEquals(TestUtils.convert(messages), new ArrayList<>(TestUtils.createRange(0, MESSAGES)));
+  }
+
+  @Test
+  public void testSlicesStopAtTheByteLimit() throws Exception {
+    final List<Long> offsets = new ArrayList<>();
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      BackfillScanner scanner = new BackfillScanner(context, topic, 0, 2);
+      // the default slices span MESSAGES / 8 offsets, far more than four fetches hold
+      scanner.setFetchSize(256);
+      long read = scanner.scan(new BackfillScanner.PayloadHandler() {
+        @Override
+        public void onMessage(ByteBuffer payload, long offset) {
+          offsets.add(offset);
+        }
+      });
+      assertEquals(MESSAGES, read);
+      assertEquals(0, context.getBorrowedCount());
+    }
+    for (int i = 0; i < MESSAGES; i++) {
+      assertEquals(i, (long) offsets.get(i));
+    }
+  }
+
+  @Test
+  public void testUnorderedScan() throws Exception {
+    final Set<Long> offsets = Collections.synchronizedSet(new HashSet<Long>());
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      BackfillScanner scanner = new BackfillScanner(context, topic, 0, 4);
+      long read = scanner.scanUnordered(new BackfillScanner.PayloadHandler() {
+        @Override
+        public void onMessage(ByteBuffer payload, long offset) {
+          assertEquals(Long.toString(offset), KafkaReader.decode(payload));
+          offsets.add(offset);
+        }
+      });
+      assertEquals(MESSAGES, read);
+    }
+    assertEquals(MESSAGES, offsets.size());
+  }
+
+  @Test
+  public void testScanRange() throws Exception {
+    final List<Long> offsets = new ArrayList<>();
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      BackfillScanner scanner = new BackfillScanner(context, topic, 0, 2);
+      scanner.setRangeSize(30);
+      assertEquals(100, scanner.scan(100, 200, new BackfillScanner.PayloadHandler() {
+        @Override
+        public void onMessage(ByteBuffer payload, long offset) {
+          offsets.add(offset);
+        }
+      }, true));
+    }
+    assertEquals(100L, (long) offsets.get(0));
+    assertEquals(199L, (long) offsets.get(99));
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
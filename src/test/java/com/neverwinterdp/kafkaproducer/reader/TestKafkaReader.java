@@ -4,14 +4,19 @@ import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -29,11 +34,13 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.neverwinterdp.kafkaproducer.messagegenerator.DefaultMessageGenerator;
 import com.neverwinterdp.kafkaproducer.retry.DefaultRetryStrategy;
 import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
 import com.neverwinterdp.kafkaproducer.util.TestLabel;
 import com.neverwinterdp.kafkaproducer.util.TestUtils;
 import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
 import com.neverwinterdp.kafkaproducer.writer.TestKafkaWriter;
 
 public class TestKafkaReader {
@@ -182,6 +189,40 @@ public class TestKafkaReader {
     assertFalse(reader.hasNext());
   }
 
+  @Test
+  public void testHasNextFromHighWatermark() throws Exception {
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    TestUtils.writeRandomData(topic, kafkaPort, 10);
+    assertEquals(-1, reader.getHighWatermark());
+    assertEquals(10, reader.read().size());
+    assertEquals(10, reader.getHighWatermark());
+    assertFalse(reader.hasNext());
+
+    // the cached watermark is stale now, hasNext has to ask the broker
+    TestUtils.writeRandomData(topic, kafkaPort, 5);
+    assertTrue(reader.hasNext());
+    assertEquals(15, reader.getHighWatermark());
+    assertEquals(5, reader.read().size());
+  }
+
+  @Test
+  public void testReadPayloads() throws Exception {
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    TestUtils.writeRandomData(topic, kafkaPort, 10);
+    List<ByteBuffer> payloads = reader.readPayloads();
+    assertEquals(10, payloads.size());
+    TestUtils.writeRandomData(topic, kafkaPort, 5);
+    assertEquals(5, reader.readPayloads().size());
+
+    // still the first fetch's messages, and not writable
+    Set<Integer> actual = new TreeSet<>();
+    for (ByteBuffer payload : payloads) {
+      assertTrue(payload.isReadOnly());
+      actual.add(Integer.parseInt(KafkaReader.decode(payload)));
+    }
+    assertEquals(TestUtils.createRange(0, 10), actual);
+  }
+
   @Test
   public void testReadAll() throws Exception {
     int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
@@ -194,6 +235,123 @@ public class TestKafkaReader {
     assertEquals(messages.size(), writes);
   }
 
+  @Test
+  public void testStream() throws Exception {
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    int count = 10;
+    final List<Long> offsets = Collections.synchronizedList(new ArrayList<Long>());
+    final CountDownLatch received = new CountDownLatch(count);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        reader.stream(new KafkaReader.MessageHandler() {
+          @Override
+          public void onMessage(String message, long offset) {
+            offsets.add(offset);
+            received.countDown();
+          }
+        }, 1000, 1);
+      }
+    });
+    thread.start();
+    TestUtils.writeRandomData(topic, kafkaPort, count);
+    assertTrue(received.await(10, TimeUnit.SECONDS));
+
+    // an idle stream is parked on the broker and returns within maxWait of stop
+    long start = System.currentTimeMillis();
+    reader.stop();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertTrue(System.currentTimeMillis() - start < 2000);
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, (long) offsets.get(i));
+    }
+  }
+
+  @Test
+  public void testStopBeforeStream() throws Exception {
+    reader.stop();
+    long start = System.currentTimeMillis();
+    reader.stream(new KafkaReader.MessageHandler() {
+      @Override
+      public void onMessage(String message, long offset) {
+      }
+    }, 1000, 1);
+    assertTrue(System.currentTimeMillis() - start < 2000);
+  }
+
+  @Test
+  public void testAdaptiveFetchSize() throws Exception {
+    int count = 10;
+    char[] large = new char[200 * 1024];
+    Arrays.fill(large, 'x');
+    KafkaWriter writer = new KafkaWriter.Builder(zkURL, topic).partition(0).build();
+    for (int i = 0; i < count; i++) {
+      writer.write(i + new String(large));
+    }
+    writer.close();
+
+    // the messages are over both the initial and the maximum fetch size
+    reader.setFetchSizeLimits(16 * 1024, 64 * 1024);
+    List<String> messages = new ArrayList<>();
+    while (reader.hasNext()) {
+      messages.addAll(reader.read());
+    }
+    assertEquals(count, messages.size());
+    for (int i = 0; i < count; i++) {
+      assertTrue(messages.get(i).startsWith(Integer.toString(i) + "x"));
+    }
+    // back under the maximum once the oversized messages are read
+    assertEquals(64 * 1024, reader.getFetchSize());
+    try {
+      // too small for the offset and size of a message
+      reader.setFetchSizeLimits(8, 1024);
+      fail("fetch size under the log overhead");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // tailing shrinks the fetch, a backlog grows it again
+    reader.setFetchSizeLimits(16 * 1024, 4 * 1024 * 1024);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(reader.read().isEmpty());
+    }
+    assertEquals(16 * 1024, reader.getFetchSize());
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    TestUtils.writeRandomData(topic, kafkaPort, 10000);
+    assertFalse(reader.read().isEmpty());
+    assertEquals(32 * 1024, reader.getFetchSize());
+  }
+
+  @Test
+  public void testSeekToTime() throws Exception {
+    int count = 500;
+    DefaultMessageGenerator generator = new DefaultMessageGenerator(topic, 0, 1);
+    KafkaWriter writer = new KafkaWriter.Builder(zkURL, topic).partition(0).build();
+    for (int i = 0; i < count; i++) {
+      writer.write(generator.next());
+    }
+    Thread.sleep(100);
+    long time = System.currentTimeMillis();
+    Thread.sleep(100);
+    for (int i = 0; i < count; i++) {
+      writer.write(generator.next());
+    }
+    writer.close();
+
+    assertEquals(count, reader.seekToTime(time));
+    // a binary search over the segment, not a scan
+    assertTrue(reader.getFetchRequests() < 20);
+    List<String> messages = reader.read();
+    assertFalse(messages.isEmpty());
+    assertTrue(messages.get(0).contains("SEQUENCE:" + (count + 1) + ","));
+
+    assertEquals(0, reader.seekToTime(time - TimeUnit.MINUTES.toMillis(10)));
+    assertTrue(reader.read().get(0).contains("SEQUENCE:1,"));
+    assertEquals(2 * count, reader.seekToTime(System.currentTimeMillis() + 1000));
+    assertFalse(reader.hasNext());
+  }
+
   @After
   public void tearDown() throws Exception {
     reader.close();
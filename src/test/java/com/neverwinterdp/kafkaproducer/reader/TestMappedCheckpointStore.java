@@ -0,0 +1,114 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import kafka.common.TopicAndPartition;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMappedCheckpointStore {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("checkpoints", ".bin");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testWriteAndReopen() throws Exception {
+    MappedCheckpointStore store = new MappedCheckpointStore(file, 8, 1000);
+    assertEquals(-1, store.read("topic", 0));
+    Map<TopicAndPartition, Long> offsets = new HashMap<>();
+    for (int partition = 0; partition < 4; partition++) {
+      offsets.put(new TopicAndPartition("topic", partition), partition * 100L);
+    }
+    store.write(offsets);
+    store.write(Collections.singletonMap(new TopicAndPartition("topic", 0), 42L));
+    store.write(Collections.singletonMap(new TopicAndPartition("topic", 0), 43L));
+    assertEquals(43, store.read("topic", 0));
+    assertEquals(300, store.read("topic", 3));
+    assertEquals(4, store.getUsedSlots());
+    store.close();
+
+    // the slots survive, and the slot count of the file wins
+    store = new MappedCheckpointStore(file, 2, 1000);
+    assertEquals(43, store.read("topic", 0));
+    assertEquals(200, store.read("topic", 2));
+    assertEquals(-1, store.read("other", 0));
+    store.write(Collections.singletonMap(new TopicAndPartition("other", 0), 7L));
+    assertEquals(5, store.getUsedSlots());
+    store.close();
+    assertEquals(MappedCheckpointStore.HEADER_SIZE + 8 * MappedCheckpointStore.SLOT_SIZE,
+        file.length());
+  }
+
+  @Test
+  public void testTornWriteFallsBackToPreviousOffset() throws Exception {
+    MappedCheckpointStore store = new MappedCheckpointStore(file, 1, 1000);
+    TopicAndPartition topicAndPartition = new TopicAndPartition("topic", 0);
+    // sequence 1 in record 0, sequence 2 in record 1
+    store.write(Collections.singletonMap(topicAndPartition, 10L));
+    store.write(Collections.singletonMap(topicAndPartition, 20L));
+    store.close();
+
+    // half of the offset of the newest record made it to disk
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(MappedCheckpointStore.HEADER_SIZE + MappedCheckpointStore.RECORD
+          + MappedCheckpointStore.RECORD_SIZE + 8);
+      raf.writeInt(0x12345678);
+    }
+    store = new MappedCheckpointStore(file, 1, 1000);
+    assertEquals(10, store.read("topic", 0));
+    // the next write goes over the torn record
+    store.write(Collections.singletonMap(topicAndPartition, 30L));
+    assertEquals(30, store.read("topic", 0));
+    store.close();
+  }
+
+  @Test
+  public void testFull() throws Exception {
+    MappedCheckpointStore store = new MappedCheckpointStore(file, 2, 1000);
+    store.write(Collections.singletonMap(new TopicAndPartition("topic", 0), 1L));
+    // the partitions with a slot are written, the one past the last slot is dropped
+    Map<TopicAndPartition, Long> offsets = new LinkedHashMap<>();
+    for (int partition = 0; partition < 3; partition++) {
+      offsets.put(new TopicAndPartition("topic", partition), 2L);
+    }
+    store.write(offsets);
+    store.write(offsets);
+    assertEquals(2, store.read("topic", 0));
+    assertEquals(2, store.read("topic", 1));
+    assertEquals(-1, store.read("topic", 2));
+    assertEquals(2, store.getUsedSlots());
+    store.close();
+  }
+
+  @Test
+  public void testCheckpointer() throws Exception {
+    OffsetCheckpointer checkpointer =
+        new OffsetCheckpointer(new MappedCheckpointStore(file, 8, 1000), 1, 1000);
+    for (int i = 1; i <= 1000; i++) {
+      checkpointer.update("topic", 0, i, 1);
+    }
+    checkpointer.close();
+    MappedCheckpointStore store = new MappedCheckpointStore(file, 8, 1000);
+    assertEquals(1000, store.read("topic", 0));
+    store.close();
+  }
+}
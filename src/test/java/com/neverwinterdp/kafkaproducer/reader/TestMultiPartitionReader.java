@@ -0,0 +1,105 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
+
+public class TestMultiPartitionReader {
+
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestMultiPartitionReader.class);
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    // one zk, 2 kafkas so the partitions have two leaders
+    cluster = new EmbeddedCluster(1, 2);
+    cluster.start();
+    helper = new ZookeeperHelper(cluster.getZkURL());
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testOneRequestPerBroker() throws Exception {
+    int partitions = 6;
+    int perPartition = 50;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, partitions, 1);
+    TestUtils.waitUntilMetadataIsPropagated(cluster.getZkURL(), topic);
+    KafkaWriter writer = new KafkaWriter.Builder(cluster.getZkURL(), topic).build();
+    for (int i = 0; i < perPartition * partitions; i++) {
+      writer.write(Integer.toString(i), i % partitions);
+    }
+    writer.close();
+
+    HashSet<HostPort> leaders = new HashSet<>();
+    for (int partition = 0; partition < partitions; partition++) {
+      leaders.add(helper.getLeaderForTopicAndPartition(topic, partition));
+    }
+    assertEquals(2, leaders.size());
+
+    Map<Integer, List<String>> read = new HashMap<>();
+    int reads = 0;
+    try (MultiPartitionReader reader = new MultiPartitionReader(cluster.getZkURL(), topic)) {
+      while (reader.hasNext()) {
+        for (Entry<Integer, List<ByteBuffer>> entry : reader.read().entrySet()) {
+          if (!read.containsKey(entry.getKey())) {
+            read.put(entry.getKey(), new ArrayList<String>());
+          }
+          for (ByteBuffer payload : entry.getValue()) {
+            read.get(entry.getKey()).add(KafkaReader.decode(payload));
+          }
+        }
+        reads++;
+      }
+      assertEquals(reads * leaders.size(), reader.getFetchRequests());
+      assertEquals(perPartition, reader.getOffset(0));
+      assertFalse(reader.hasNext());
+    }
+    assertEquals(partitions, read.size());
+    for (Entry<Integer, List<String>> entry : read.entrySet()) {
+      assertEquals(perPartition, entry.getValue().size());
+      int previous = -1;
+      for (String message : entry.getValue()) {
+        int value = Integer.parseInt(message);
+        assertEquals((int) entry.getKey(), value % partitions);
+        assertTrue(value > previous);
+        previous = value;
+      }
+    }
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
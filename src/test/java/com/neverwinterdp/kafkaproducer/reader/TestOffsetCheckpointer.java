@@ -0,0 +1,121 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+public class TestOffsetCheckpointer {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestOffsetCheckpointer.class);
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testReadFromCheckpoint() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    TestUtils.writeRandomData(topic, kafkaPort, 100);
+
+    OffsetCheckpointer checkpointer = new OffsetCheckpointer(helper, "group1", 10, 60000);
+    assertEquals(-1, checkpointer.getCommitted(topic, 0));
+    KafkaReader reader = new KafkaReader(zkURL, topic, 0);
+    reader.setCheckpointer(checkpointer);
+    List<String> messages = new ArrayList<>();
+    while (reader.hasNext()) {
+      messages.addAll(reader.read());
+    }
+    // the last read is only reported once the caller is done with it
+    assertTrue(checkpointer.getCommitted(topic, 0) < 100);
+    reader.commit();
+    reader.close();
+    assertEquals(100, messages.size());
+    // committed as soon as 10 messages were read, long before the interval
+    for (int i = 0; i < 50 && checkpointer.getCommitted(topic, 0) < 100; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(100, checkpointer.getCommitted(topic, 0));
+    checkpointer.close();
+
+    // a new reader of the group carries on after the checkpoint
+    TestUtils.writeRandomData(topic, kafkaPort, 10);
+    checkpointer = new OffsetCheckpointer(helper, "group1", 10, 60000);
+    reader = new KafkaReader(zkURL, topic, 0);
+    reader.setCheckpointer(checkpointer);
+    messages.clear();
+    while (reader.hasNext()) {
+      messages.addAll(reader.read());
+    }
+    reader.commit();
+    reader.close();
+    checkpointer.close();
+    assertEquals(10, messages.size());
+    assertEquals(110, checkpointer.getCommitted(topic, 0));
+
+    // another group starts from the beginning
+    checkpointer = new OffsetCheckpointer(helper, "group2", 10, 60000);
+    reader = new KafkaReader(zkURL, topic, 0);
+    reader.setCheckpointer(checkpointer);
+    assertEquals(110, reader.read().size());
+    reader.close();
+    checkpointer.close();
+  }
+
+  @Test
+  public void testUpdatesAreCoalesced() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    int partitions = 3;
+    int updates = 10000;
+    OffsetCheckpointer checkpointer = new OffsetCheckpointer(helper, "group3", 1000000, 200);
+    long start = System.nanoTime();
+    for (int i = 1; i <= updates; i++) {
+      checkpointer.update(topic, i % partitions, i, 1);
+    }
+    logger.info("update took " + (System.nanoTime() - start) / updates + " ns");
+    Thread.sleep(1000);
+    // one multi-op for the three partitions per interval at most
+    assertTrue(checkpointer.getCommits() <= 2);
+    for (int partition = 0; partition < partitions; partition++) {
+      assertEquals(updates - (updates - partition) % partitions,
+          checkpointer.getCommitted(topic, partition));
+    }
+    checkpointer.update(topic, 0, updates + 1, 1);
+    checkpointer.close();
+    assertEquals(updates + 1, checkpointer.getCommitted(topic, 0));
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -0,0 +1,144 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
+
+public class TestPrefetchingReader {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestPrefetchingReader.class);
+  // about three messages per fetch of 100000 bytes
+  private static final int MESSAGE_SIZE = 30000;
+  private static final int MESSAGES = 30;
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  private String topic;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+    KafkaWriter writer = new KafkaWriter.Builder(zkURL, topic).partition(0).build();
+    for (int i = 0; i < MESSAGES; i++) {
+      writer.write(message(i));
+    }
+    writer.close();
+  }
+
+  @Test
+  public void testReadsAllInOrder() throws Exception {
+    List<String> messages = new ArrayList<>();
+    try (PrefetchingReader reader =
+        new PrefetchingReader(new KafkaReader(zkURL, topic, 0), 2, Long.MAX_VALUE, 200)) {
+      reader.start();
+      List<String> set;
+      while ((set = reader.read(5, TimeUnit.SECONDS)) != null) {
+        messages.addAll(set);
+        if (messages.size() == MESSAGES) {
+          break;
+        }
+      }
+      assertNull(reader.read(500, TimeUnit.MILLISECONDS));
+    }
+    assertEquals(MESSAGES, messages.size());
+    for (int i = 0; i < MESSAGES; i++) {
+      assertEquals(message(i), messages.get(i));
+    }
+  }
+
+  @Test
+  public void testQueueIsBounded() throws Exception {
+    try (PrefetchingReader reader =
+        new PrefetchingReader(new KafkaReader(zkURL, topic, 0), 2, Long.MAX_VALUE, 200)) {
+      reader.start();
+      // give the fetcher time to fill the queue while nobody consumes
+      Thread.sleep(2000);
+      assertEquals(2, reader.getQueuedSets());
+      assertTrue(reader.getFetched() < MESSAGES);
+      assertTrue(reader.read(1, TimeUnit.SECONDS).size() > 0);
+    }
+
+    try (PrefetchingReader reader =
+        new PrefetchingReader(new KafkaReader(zkURL, topic, 0), 10, 1, 200)) {
+      reader.start();
+      Thread.sleep(2000);
+      // one set is let through even though it is over the byte limit
+      assertEquals(1, reader.getQueuedSets());
+      assertTrue(reader.getQueuedBytes() >= MESSAGE_SIZE);
+      int read = 0;
+      List<String> set;
+      while (read < MESSAGES && (set = reader.read(5, TimeUnit.SECONDS)) != null) {
+        read += set.size();
+      }
+      assertEquals(MESSAGES, read);
+    }
+    logger.info("bounded prefetch done");
+  }
+
+  @Test
+  public void testCloseReleasesAfterFetch() throws Exception {
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      PrefetchingReader reader =
+          new PrefetchingReader(new KafkaReader(context, topic, 0), 100, Long.MAX_VALUE, 2000);
+      reader.start();
+      int read = 0;
+      List<String> set;
+      while (read < MESSAGES && (set = reader.read(5, TimeUnit.SECONDS)) != null) {
+        read += set.size();
+      }
+      assertEquals(MESSAGES, read);
+      // the fetcher is in a long poll, its connection is only released once that returns
+      assertEquals(1, context.getBorrowedCount());
+      reader.close();
+      assertEquals(0, context.getBorrowedCount());
+      assertEquals(1, context.getIdleCount());
+    }
+  }
+
+  private static String message(int i) {
+    char[] padding = new char[MESSAGE_SIZE];
+    Arrays.fill(padding, 'x');
+    return i + ":" + new String(padding);
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -0,0 +1,114 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
+
+public class TestReaderContext {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestReaderContext.class);
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testReadersReuseConsumers() throws Exception {
+    int readers = 10;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 2, 1);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+    KafkaWriter writer = new KafkaWriter.Builder(zkURL, topic).partition(0).build();
+    for (int i = 0; i < 10; i++) {
+      writer.write("message" + i);
+    }
+    writer.close();
+
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      // one after the other, each reader gets the connection of the previous one
+      for (int i = 0; i < readers; i++) {
+        KafkaReader reader = new KafkaReader(context, topic, 0);
+        List<String> messages = reader.read();
+        assertEquals(10, messages.size());
+        reader.close();
+      }
+      assertEquals(1, context.getCreatedCount());
+      assertEquals(1, context.getIdleCount());
+
+      // at the same time, each reader needs its own
+      KafkaReader first = new KafkaReader(context, topic, 0);
+      KafkaReader second = new KafkaReader(context, topic, 1);
+      assertEquals(2, context.getCreatedCount());
+      assertEquals(2, context.getBorrowedCount());
+      assertEquals(0, context.getIdleCount());
+      assertEquals(10, first.read().size());
+      first.close();
+      second.close();
+      assertEquals(2, context.getIdleCount());
+    }
+  }
+
+  @Test
+  public void testIdleConsumersAreEvicted() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+
+    try (ReaderContext context = new ReaderContext(zkURL, 500)) {
+      KafkaReader reader = new KafkaReader(context, topic, 0);
+      reader.hasNext();
+      // a borrowed consumer is never evicted
+      Thread.sleep(1500);
+      assertEquals(1, context.getBorrowedCount());
+      reader.close();
+      assertEquals(1, context.getIdleCount());
+      Thread.sleep(1500);
+      assertEquals(0, context.getIdleCount());
+
+      new KafkaReader(context, topic, 0).close();
+      assertEquals(2, context.getCreatedCount());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownPartition() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+    try (ReaderContext context = new ReaderContext(zkURL)) {
+      new KafkaReader(context, topic, 5);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -0,0 +1,116 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import kafka.server.KafkaServer;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.TopicMetadataCache;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
+
+public class TestReaderFailover {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestReaderFailover.class);
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    // one zk, 2 kafkas so the partition has a replica to fail over to
+    cluster = new EmbeddedCluster(1, 2);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testKillLeaderWhileReading() throws Exception {
+    int count = 200;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 2);
+    TestUtils.waitUntilMetadataIsPropagated(zkURL, topic);
+    TopicMetadataCache metadata = helper.getTopicMetadataCache(topic);
+    for (int i = 0; i < 100 && metadata.getIsr(0).size() < 2; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(2, metadata.getIsr(0).size());
+
+    // acknowledged by both replicas, so the new leader has them all
+    Properties props = new Properties();
+    props.put("request.required.acks", "-1");
+    KafkaWriter writer =
+        new KafkaWriter.Builder(zkURL, topic).properties(props).partition(0).build();
+    char[] padding = new char[1000];
+    Arrays.fill(padding, 'x');
+    for (int i = 0; i < count; i++) {
+      writer.write(i + ":" + new String(padding));
+    }
+    writer.close();
+
+    KafkaReader reader = new KafkaReader(zkURL, topic, 0);
+    // a handful of messages per fetch, so most are read after the failover
+    reader.setFetchSizeLimits(16 * 1024, 16 * 1024);
+    List<String> messages = new ArrayList<>(reader.read());
+    assertTrue(messages.size() < count / 2);
+
+    HostPort leader = helper.getLeaderForTopicAndPartition(topic, 0);
+    killBroker(leader);
+
+    while (reader.hasNext()) {
+      messages.addAll(reader.read());
+    }
+    reader.close();
+    assertNotEquals(leader, helper.getLeaderForTopicAndPartition(topic, 0));
+    assertEquals(1, reader.getFailovers());
+    assertTrue(reader.getLastRecoveryTime() >= 0);
+    logger.info("Recovered in " + reader.getLastRecoveryTime() + " ms");
+
+    // no gap and no duplicate
+    assertEquals(count, messages.size());
+    for (int i = 0; i < count; i++) {
+      assertTrue(messages.get(i).startsWith(i + ":"));
+    }
+  }
+
+  private void killBroker(HostPort broker) {
+    for (KafkaServer server : cluster.getKafkaServers()) {
+      if (broker.getHost().equals(server.config().hostName())
+          && broker.getPort() == server.config().port()) {
+        server.shutdown();
+        server.awaitShutdown();
+        logger.info("Killed leader " + broker);
+      }
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -0,0 +1,120 @@
+package com.neverwinterdp.kafkaproducer.reader;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+
+import kafka.javaapi.PartitionMetadata;
+import kafka.javaapi.TopicMetadataRequest;
+import kafka.javaapi.TopicMetadataResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+import com.neverwinterdp.kafkaproducer.writer.KafkaWriter;
+
+public class TestReaderMain {
+
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestReaderMain.class);
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    helper = new ZookeeperHelper(cluster.getZkURL());
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testReadersFollowPartitions() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    int kafkaPort = helper.getLeaderForTopicAndPartition(topic, 0).getPort();
+    Main daemon = new Main(cluster.getZkURL(), topic, 2, 200, 1);
+    daemon.start();
+    try {
+      TestUtils.writeRandomData(topic, kafkaPort, 100);
+      waitFor(daemon, 100);
+      assertEquals(1, daemon.getReaderCount());
+
+      // three partitions on two threads
+      helper.addPartitions(topic, 3);
+      for (int i = 0; i < 100 && daemon.getReaderCount() < 3; i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(3, daemon.getReaderCount());
+      // the producer routes on the partition count the broker reports
+      waitForPartitions(topic, kafkaPort, 3);
+      try (KafkaWriter writer = new KafkaWriter.Builder(cluster.getZkURL(), topic).build()) {
+        for (int partition = 0; partition < 3; partition++) {
+          for (int i = 0; i < 100; i++) {
+            writer.write(Integer.toString(i), partition);
+          }
+        }
+      }
+      waitFor(daemon, 400);
+      assertEquals(400, daemon.getMessagesRead());
+      // every reader read its own partition
+      assertEquals(200, daemon.getMessagesRead(0));
+      assertEquals(100, daemon.getMessagesRead(1));
+      assertEquals(100, daemon.getMessagesRead(2));
+    } finally {
+      daemon.stop();
+    }
+  }
+
+  private void waitForPartitions(String topic, int kafkaPort, int partitions) throws Exception {
+    SimpleConsumer consumer = new SimpleConsumer("localhost", kafkaPort, 10000, 64 * 1024, topic);
+    try {
+      for (int i = 0; i < 100; i++) {
+        TopicMetadataResponse response =
+            consumer.send(new TopicMetadataRequest(Collections.singletonList(topic)));
+        List<PartitionMetadata> metadata = response.topicsMetadata().get(0).partitionsMetadata();
+        int led = 0;
+        for (PartitionMetadata partition : metadata) {
+          if (partition.leader() != null) {
+            led++;
+          }
+        }
+        if (led == partitions) {
+          return;
+        }
+        Thread.sleep(100);
+      }
+    } finally {
+      consumer.close();
+    }
+    fail(topic + " does not have " + partitions + " partitions with a leader");
+  }
+
+  private void waitFor(Main daemon, long messages) throws InterruptedException {
+    for (int i = 0; i < 200 && daemon.getMessagesRead() < messages; i++) {
+      Thread.sleep(100);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
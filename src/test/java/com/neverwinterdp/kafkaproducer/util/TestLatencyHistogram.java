@@ -0,0 +1,62 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    LatencyHistogram histogram = new LatencyHistogram(1L << 40, 7);
+    int previous = -1;
+    for (long value = 0; value < 1 << 20; value++) {
+      int index = histogram.indexOf(value);
+      assertTrue(index == previous || index == previous + 1);
+      assertTrue(histogram.lowestValueAt(index) <= value);
+      assertTrue(histogram.highestValueAt(index) >= value);
+      previous = index;
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram(3600000000L, 8);
+    for (long i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10000, histogram.getTotalCount());
+    assertEquals(10000, histogram.getMax());
+    assertWithin(5000, histogram.getValueAtPercentile(50));
+    assertWithin(9900, histogram.getValueAtPercentile(99));
+    assertWithin(9990, histogram.getValueAtPercentile(99.9));
+    assertEquals(10000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testAddAndClamp() {
+    LatencyHistogram a = new LatencyHistogram(1000, 7);
+    LatencyHistogram b = new LatencyHistogram(1000, 7);
+    a.record(10);
+    b.record(20);
+    b.record(5000);
+    a.add(b);
+    assertEquals(3, a.getTotalCount());
+    assertEquals(1000, a.getMax());
+    assertEquals(10, a.getValueAtPercentile(10));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    a.write(new PrintStream(bytes));
+    // header and three buckets
+    assertEquals(4, bytes.toString().trim().split("\n").length);
+  }
+
+  private void assertWithin(long expected, long actual) {
+    assertTrue("expected " + expected + " got " + actual,
+        Math.abs(expected - actual) <= expected / 100);
+  }
+}
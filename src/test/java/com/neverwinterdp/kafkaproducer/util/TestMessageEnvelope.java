@@ -0,0 +1,67 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.neverwinterdp.kafkaproducer.partitioner.EnvelopePartitioner;
+
+public class TestMessageEnvelope {
+
+  @Test
+  public void testRoundTrip() {
+    byte[] payload = "payload".getBytes(Charsets.UTF_8);
+    long now = MessageEnvelope.currentTimeNanos();
+    byte[] message = MessageEnvelope.encode(3, 5, Long.MAX_VALUE - 1, now, payload);
+
+    assertEquals(MessageEnvelope.HEADER_LENGTH + payload.length, message.length);
+    assertTrue(MessageEnvelope.isEnvelope(message));
+    assertEquals(3, MessageEnvelope.getWriterId(message));
+    assertEquals(5, MessageEnvelope.getPartition(message));
+    assertEquals(Long.MAX_VALUE - 1, MessageEnvelope.getSequence(message));
+    assertEquals(now, MessageEnvelope.getTimestamp(message));
+
+    // as a reader sees it, at an offset inside a larger buffer
+    ByteBuffer buffer = ByteBuffer.allocate(message.length + 10);
+    buffer.position(10);
+    buffer.put(message);
+    buffer.position(10);
+    assertTrue(MessageEnvelope.isEnvelope(buffer));
+    assertEquals(3, MessageEnvelope.getWriterId(buffer));
+    assertEquals(5, MessageEnvelope.getPartition(buffer));
+    assertEquals(Long.MAX_VALUE - 1, MessageEnvelope.getSequence(buffer));
+    assertEquals(now, MessageEnvelope.getTimestamp(buffer));
+    ByteBuffer read = MessageEnvelope.getPayload(buffer);
+    byte[] bytes = new byte[read.remaining()];
+    read.get(bytes);
+    assertArrayEquals(payload, bytes);
+    assertEquals(10, buffer.position());
+  }
+
+  @Test
+  public void testNotAnEnvelope() {
+    assertFalse(MessageEnvelope.isEnvelope("TOPIC:t, PARTITION:0, WriterID:0, SEQUENCE:1"
+        .getBytes(Charsets.UTF_8)));
+    assertFalse(MessageEnvelope.isEnvelope(new byte[3]));
+  }
+
+  @Test
+  public void testCurrentTimeNanos() {
+    long millis = System.currentTimeMillis();
+    assertTrue(Math.abs(millis - MessageEnvelope.currentTimeNanos() / 1000000) < 1000);
+  }
+
+  @Test
+  public void testPartitioner() {
+    EnvelopePartitioner partitioner = new EnvelopePartitioner(null);
+    assertEquals(1, partitioner.partition(MessageEnvelope.encode(0, 1, 1, 0, new byte[0]), 3));
+    assertEquals(1, partitioner.partition(MessageEnvelope.encode(0, 4, 1, 0, new byte[0]), 3));
+    assertEquals(2, partitioner.partition("2", 3));
+  }
+}
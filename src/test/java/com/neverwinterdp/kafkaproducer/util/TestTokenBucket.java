@@ -0,0 +1,59 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.writer.RateProfile;
+
+public class TestTokenBucket {
+
+  @Test
+  public void testPacesAtRate() {
+    TokenBucket bucket = new TokenBucket(20000, TimeUnit.SECONDS.toNanos(1));
+    long start = System.nanoTime();
+    for (int i = 0; i < 10000; i++) {
+      bucket.acquire(1);
+    }
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("took " + elapsedMs + "ms", elapsedMs >= 450 && elapsedMs < 1500);
+  }
+
+  @Test
+  public void testDueTimesAreEvenlySpaced() {
+    TokenBucket bucket = new TokenBucket(1000, Long.MAX_VALUE);
+    long first = bucket.reserve(1);
+    long second = bucket.reserve(10);
+    long third = bucket.reserve(1);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), second - first);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), third - second);
+  }
+
+  @Test
+  public void testBacklogIsBoundedByBurst() throws Exception {
+    TokenBucket bucket = new TokenBucket(1000, TimeUnit.MILLISECONDS.toNanos(10));
+    Thread.sleep(100);
+    long now = System.nanoTime();
+    long due = bucket.reserve(1);
+    assertTrue(now - due <= TimeUnit.MILLISECONDS.toNanos(11));
+  }
+
+  @Test
+  public void testRateProfiles() {
+    long second = TimeUnit.SECONDS.toNanos(1);
+    assertEquals(100, RateProfile.constant(100).rateAt(5 * second), 0);
+
+    RateProfile ramp = RateProfile.rampUp(1000, 10);
+    assertEquals(100, ramp.rateAt(0), 0.001);
+    assertEquals(550, ramp.rateAt(5 * second), 0.001);
+    assertEquals(1000, ramp.rateAt(20 * second), 0.001);
+
+    RateProfile steps = RateProfile.steps("100:2, 500:3");
+    assertEquals(100, steps.rateAt(second), 0);
+    assertEquals(500, steps.rateAt(3 * second), 0);
+    assertEquals(500, steps.rateAt(60 * second), 0);
+  }
+}
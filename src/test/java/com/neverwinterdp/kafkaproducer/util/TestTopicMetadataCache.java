@@ -0,0 +1,127 @@
+package com.neverwinterdp.kafkaproducer.util;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+
+public class TestTopicMetadataCache {
+
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestTopicMetadataCache.class);
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    helper = new ZookeeperHelper(cluster.getZkURL());
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testLeaderMatchesZookeeper() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 2, 1);
+    TopicMetadataCache cache = helper.getTopicMetadataCache(topic);
+
+    assertEquals(helper.getLeaderForTopicAndPartition(topic, 0), cache.getLeader(0));
+    assertEquals(helper.getLeaderForTopicAndPartition(topic, 1), cache.getLeader(1));
+    assertEquals(helper.getBrokersForTopic(topic).values().size(), cache.getBrokers().size());
+    assertNull(cache.getLeader(2));
+  }
+
+  @Test
+  public void testSameCacheForTopic() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    assertSame(helper.getTopicMetadataCache(topic), helper.getTopicMetadataCache(topic));
+  }
+
+  @Test
+  public void testWatchReportsNewTopic() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    TopicMetadataCache cache = helper.getTopicMetadataCache(topic);
+    assertNull(cache.getLeader(0));
+    long version = cache.getVersion();
+
+    final CountDownLatch changed = new CountDownLatch(1);
+    cache.addListener(new TopicMetadataCache.Listener() {
+      @Override
+      public void metadataChanged(TopicMetadataCache cache) {
+        changed.countDown();
+      }
+    });
+    helper.createTopic(topic, 1, 1);
+
+    assertTrue(changed.await(10, TimeUnit.SECONDS));
+    assertTrue(cache.getVersion() > version);
+    assertEquals(helper.getLeaderForTopicAndPartition(topic, 0), cache.getLeader(0));
+  }
+
+  @Test
+  public void testWatchReportsNewPartitions() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    TopicMetadataCache cache = helper.getTopicMetadataCache(topic);
+    assertEquals(1, cache.getPartitions().size());
+
+    helper.addPartitions(topic, 3);
+    for (int i = 0; i < 100 && cache.getLeader(2) == null; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(3, cache.getPartitions().size());
+    assertEquals(helper.getLeaderForTopicAndPartition(topic, 2), cache.getLeader(2));
+  }
+
+  @Test
+  public void testWatchReportsReassignment() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 2, 1);
+    TopicMetadataCache cache = helper.getTopicMetadataCache(topic);
+    long version = cache.getVersion();
+    int broker = cluster.getKafkaServers().get(0).config().brokerId();
+
+    // a second replica, on a broker that is not up, moves from one partition to the other: the
+    // same leaders and as many live replicas, another assignment
+    helper.updateProgress("/brokers/topics/" + topic,
+        ("{\"version\":1,\"partitions\":{\"0\":[" + broker + ",7],\"1\":[" + broker + "]}}")
+            .getBytes());
+    for (int i = 0; i < 100 && cache.getVersion() == version; i++) {
+      Thread.sleep(100);
+    }
+    version = cache.getVersion();
+    helper.updateProgress("/brokers/topics/" + topic,
+        ("{\"version\":1,\"partitions\":{\"0\":[" + broker + "],\"1\":[" + broker + ",7]}}")
+            .getBytes());
+    for (int i = 0; i < 100 && cache.getVersion() == version; i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(cache.getVersion() > version);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -0,0 +1,90 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+/**
+ * Writes the same load through both producer engines on an embedded cluster and prints the rates.
+ *
+ * Not a test: run it by hand. TestKafkaWriter checks that both engines deliver.
+ */
+public class ProducerEngineBenchmark {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(ProducerEngineBenchmark.class);
+
+  private final String zkURL;
+  private final ZookeeperHelper helper;
+  private int syncWrites = 2000;
+  private int asyncWrites = 20000;
+
+  ProducerEngineBenchmark(String zkURL, ZookeeperHelper helper) {
+    this.zkURL = zkURL;
+    this.helper = helper;
+  }
+
+  public static void main(String[] args) throws Exception {
+    EmbeddedCluster cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    ZookeeperHelper helper = new ZookeeperHelper(cluster.getZkURL());
+    try {
+      Thread.sleep(3000);
+      ProducerEngineBenchmark benchmark = new ProducerEngineBenchmark(cluster.getZkURL(), helper);
+      for (ProducerEngine engine : ProducerEngine.values()) {
+        benchmark.benchmark(engine);
+      }
+    } finally {
+      helper.deleteKafkaData();
+      helper.close();
+      cluster.shutdown();
+    }
+  }
+
+  private void benchmark(ProducerEngine engine) throws Exception {
+    Properties props = new Properties();
+    props.put("request.required.acks", "1");
+
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    try (KafkaWriter writer = new KafkaWriter.Builder(zkURL, topic).partition(0)
+        .properties(props).engine(engine).build()) {
+      long start = System.nanoTime();
+      for (int i = 0; i < syncWrites; i++) {
+        writer.write("message" + i);
+      }
+      report(engine + " write", syncWrites, System.nanoTime() - start);
+
+      List<ListenableFuture<Void>> futures = new ArrayList<>(asyncWrites);
+      start = System.nanoTime();
+      for (int i = 0; i < asyncWrites; i++) {
+        futures.add(writer.writeAsync("message" + i));
+      }
+      Futures.allAsList(futures).get(60, TimeUnit.SECONDS);
+      report(engine + " writeAsync", asyncWrites, System.nanoTime() - start);
+    }
+    int read = TestUtils.readMessages(topic, zkURL).size();
+    if (read != syncWrites + asyncWrites) {
+      throw new IllegalStateException(engine + " wrote " + (syncWrites + asyncWrites)
+          + " messages, read back " + read);
+    }
+  }
+
+  private void report(String name, int messages, long nanos) {
+    double seconds = nanos / 1e9;
+    String line = String.format("%-20s %8d messages in %6.2fs, %10.0f msg/s", name, messages,
+        seconds, messages / seconds);
+    logger.info(line);
+  }
+}
@@ -0,0 +1,134 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import kafka.common.FailedToSendMessageException;
+import kafka.producer.KeyedMessage;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestAsyncSender {
+
+  @Test
+  public void testFuturesCompleteInOrder() throws Exception {
+    final List<String> sent = new ArrayList<>();
+    AsyncSender<String, String> sender =
+        new AsyncSender<>(new MessageAccumulator.Sender<String, String>() {
+          @Override
+          public void send(List<KeyedMessage<String, String>> batch) {
+            for (KeyedMessage<String, String> message : batch) {
+              sent.add(message.message());
+            }
+          }
+        }, 16, 8);
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      futures.add(sender.submit(message(i)));
+    }
+    for (ListenableFuture<Void> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    sender.close();
+    assertEquals(1000, sent.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Integer.toString(i), sent.get(i));
+    }
+    assertEquals(0, sender.inFlight());
+  }
+
+  @Test
+  public void testWindowBoundsInFlight() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    AsyncSender<String, String> sender =
+        new AsyncSender<>(new MessageAccumulator.Sender<String, String>() {
+          @Override
+          public void send(List<KeyedMessage<String, String>> batch) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }, 4, 4);
+    for (int i = 0; i < 4; i++) {
+      sender.submit(message(i));
+    }
+    assertEquals(4, sender.inFlight());
+    release.countDown();
+    sender.close();
+    assertEquals(0, sender.inFlight());
+  }
+
+  @Test
+  public void testFailedSendFailsFutures() throws Exception {
+    AsyncSender<String, String> sender =
+        new AsyncSender<>(new MessageAccumulator.Sender<String, String>() {
+          @Override
+          public void send(List<KeyedMessage<String, String>> batch) {
+            throw new FailedToSendMessageException("no brokers", new Throwable());
+          }
+        }, 4, 4);
+    ListenableFuture<Void> future = sender.submit(message(0));
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("expected a failed future");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FailedToSendMessageException);
+    }
+    sender.close();
+  }
+
+  @Test
+  public void testSubmitRacingCloseCompletes() throws Exception {
+    final AsyncSender<String, String> sender =
+        new AsyncSender<>(new MessageAccumulator.Sender<String, String>() {
+          @Override
+          public void send(List<KeyedMessage<String, String>> batch) {
+          }
+        }, 1024, 64);
+    final List<ListenableFuture<Void>> futures =
+        Collections.synchronizedList(new ArrayList<ListenableFuture<Void>>());
+    List<Thread> submitters = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread submitter = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            futures.add(sender.submit(message(i)));
+          }
+        }
+      };
+      submitter.start();
+      submitters.add(submitter);
+    }
+    Thread.sleep(5);
+    sender.close();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    // sent before the close or failed after it, none left pending
+    for (ListenableFuture<Void> future : futures) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    assertEquals(0, sender.inFlight());
+  }
+
+  private KeyedMessage<String, String> message(int i) {
+    return new KeyedMessage<String, String>("topic", "0", Integer.toString(i));
+  }
+}
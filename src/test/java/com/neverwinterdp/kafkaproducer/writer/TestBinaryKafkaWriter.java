@@ -0,0 +1,146 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import kafka.api.FetchRequestBuilder;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.message.MessageAndOffset;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.neverwinterdp.kafkaproducer.messagegenerator.BytesMessageGenerator;
+import com.neverwinterdp.kafkaproducer.messagegenerator.EnvelopeMessageGenerator;
+import com.neverwinterdp.kafkaproducer.messagegenerator.IntegerGenerator;
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.HostPort;
+import com.neverwinterdp.kafkaproducer.util.MessageEnvelope;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+public class TestBinaryKafkaWriter {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestBinaryKafkaWriter.class);
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  private BinaryKafkaWriter writer;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testWriteBytes() throws Exception {
+    int count = 100;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    writer = new BinaryKafkaWriter.Builder(zkURL, topic).partition(0).build();
+    for (int i = 0; i < count; i++) {
+      writer.write(("message" + i).getBytes(Charsets.UTF_8));
+    }
+    List<String> messages = TestUtils.readMessages(topic, zkURL);
+    assertEquals(count, messages.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals("message" + i, messages.get(i));
+    }
+  }
+
+  @Test
+  public void testWriteFromGenerator() throws Exception {
+    int count = 20;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    writer = new BinaryKafkaWriter.Builder(zkURL, topic).partition(0)
+        .messageGenerator(new BytesMessageGenerator(new IntegerGenerator())).batchSize(8).build();
+    for (int i = 0; i < count; i++) {
+      writer.run();
+    }
+    writer.flush();
+    List<String> messages = TestUtils.readMessages(topic, zkURL);
+    assertEquals(TestUtils.createRange(0, count), new LinkedHashSet<>(
+        TestUtils.convert(messages)));
+  }
+
+  @Test
+  public void testEnvelopesRoutedByPartitioner() throws Exception {
+    for (ProducerEngine engine : ProducerEngine.values()) {
+      String topic = TestUtils.createRandomTopic();
+      helper.createTopic(topic, 2, 1);
+      EnvelopeMessageGenerator[] generators =
+          { new EnvelopeMessageGenerator(0, 7, 16), new EnvelopeMessageGenerator(1, 7, 16) };
+      writer = new BinaryKafkaWriter.Builder(zkURL, topic).messageGenerator(generators[0])
+          .engine(engine).build();
+      for (int i = 0; i < 100; i++) {
+        writer.write(generators[i % 2].next());
+      }
+      writer.close();
+      for (int partition = 0; partition < 2; partition++) {
+        List<ByteBuffer> messages = fetch(topic, partition);
+        assertEquals(50, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+          ByteBuffer message = messages.get(i);
+          assertTrue(MessageEnvelope.isEnvelope(message));
+          assertEquals(partition, MessageEnvelope.getPartition(message));
+          assertEquals(7, MessageEnvelope.getWriterId(message));
+          assertEquals(i + 1, MessageEnvelope.getSequence(message));
+          assertEquals(16, MessageEnvelope.getPayload(message).remaining());
+        }
+      }
+    }
+  }
+
+  private List<ByteBuffer> fetch(String topic, int partition) throws Exception {
+    HostPort leader = helper.getLeaderForTopicAndPartition(topic, partition);
+    SimpleConsumer consumer =
+        new SimpleConsumer(leader.getHost(), leader.getPort(), 10000, 64 * 1024, "test");
+    try {
+      FetchResponse response =
+          consumer.fetch(new FetchRequestBuilder().clientId("test")
+              .addFetch(topic, partition, 0, 1024 * 1024).build());
+      List<ByteBuffer> messages = new ArrayList<>();
+      for (MessageAndOffset messageAndOffset : response.messageSet(topic, partition)) {
+        messages.add(messageAndOffset.message().payload());
+      }
+      return messages;
+    } finally {
+      consumer.close();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    writer.close();
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}
@@ -1,9 +1,13 @@
 package com.neverwinterdp.kafkaproducer.writer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -137,6 +141,44 @@ public class TestKafkaProducer {
   }
 
 
+  /**
+   * Kill the leader under a writer with a fixed partition. The writer keeps its producer and
+   * reports how long writes took to recover. A send retried across the failover may land twice, so
+   * the check is that every acknowledged message is there at least once.
+   */
+  @Test
+  public void testLeaderChangeRecoveryTime() throws Exception {
+    Properties props = new Properties();
+    // acknowledged by every in-sync replica, so the new leader has them all
+    props.put("request.required.acks", "-1");
+    props.put("message.send.max.retries", "10");
+    writer = new KafkaWriter.Builder(zkURL, topic).partition(0).properties(props).build();
+    int written = 0;
+    for (int i = 0; i < 10; i++) {
+      writer.write("message" + written++);
+    }
+    killLeader();
+    for (int i = 0; i < 300 && writer.getLastRecoveryMillis() < 0; i++) {
+      try {
+        writer.write("message" + written);
+        written++;
+      } catch (FailedToSendMessageException e) {
+        System.out.println("retrying after " + e);
+      }
+      Thread.sleep(50);
+    }
+    System.out.println("recovered in " + writer.getLastRecoveryMillis() + "ms");
+    assertTrue(writer.getLastRecoveryMillis() >= 0);
+    writer.close();
+    Set<String> messages = new HashSet<>(TestUtils.readMessages(topic, zkURL));
+    for (int i = 0; i < written; i++) {
+      assertTrue(messages.contains("message" + i));
+    }
+    // at most the failed attempt of a message not acknowledged yet on top
+    assertTrue(messages.size() <= written + 1);
+  }
+
+
   /**
    * @throws Exception
    */
@@ -27,8 +27,11 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.neverwinterdp.kafkaproducer.messagegenerator.IntegerGenerator;
 import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.Consumer;
 import com.neverwinterdp.kafkaproducer.util.HostPort;
 import com.neverwinterdp.kafkaproducer.util.TestUtils;
 import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
@@ -149,6 +152,86 @@ public class TestKafkaWriter {
   }
 
 
+  @Test
+  public void testWriteToGivenPartition() throws Exception {
+    for (ProducerEngine engine : ProducerEngine.values()) {
+      topic = TestUtils.createRandomTopic();
+      helper.createTopic(topic, 3, 1);
+      writer = new KafkaWriter.Builder(zkURL, topic).engine(engine).build();
+      for (int i = 0; i < 30; i++) {
+        writer.write(Integer.toString(i), i % 3);
+      }
+      writer.writeAsync("async", 2).get(10, TimeUnit.SECONDS);
+      writer.close();
+      for (int partition = 0; partition < 3; partition++) {
+        List<String> messages;
+        try (Consumer consumer = new Consumer(zkURL, topic, partition)) {
+          messages = consumer.read();
+        }
+        assertEquals(partition == 2 ? 11 : 10, messages.size());
+        for (String message : messages) {
+          assertTrue(message.equals("async") || Integer.parseInt(message) % 3 == partition);
+        }
+      }
+    }
+  }
+
+
+  @Test
+  public void testBatchedWriteMessageOrder() throws Exception {
+    int count = 1000;
+    topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    writer = new KafkaWriter.Builder(zkURL, topic).partition(0).batchSize(64).lingerMs(100).build();
+    for (int i = 0; i < count; i++) {
+      writer.write(Integer.toString(i));
+    }
+    writer.flush();
+    List<String> messages = TestUtils.readMessages(topic, zkURL);
+    assertEquals(count, messages.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(Integer.toString(i), messages.get(i));
+    }
+  }
+
+
+  @Test
+  public void testWriteAsync() throws Exception {
+    int count = 1000;
+    topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    writer = new KafkaWriter.Builder(zkURL, topic).partition(0).maxInFlight(100).build();
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(writer.writeAsync(Integer.toString(i)));
+    }
+    Futures.allAsList(futures).get(30, TimeUnit.SECONDS);
+    List<String> messages = TestUtils.readMessages(topic, zkURL);
+    assertEquals(count, messages.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(Integer.toString(i), messages.get(i));
+    }
+  }
+
+
+  @Test
+  public void testLoadGeneratorRate() throws Exception {
+    topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    writer = new KafkaWriter.Builder(zkURL, topic).partition(0).build();
+    LoadGenerator generator =
+        new LoadGenerator(RateProfile.constant(1000), LoadGenerator.Unit.MESSAGES, 1);
+    generator.addWriter(writer, new IntegerGenerator());
+    generator.run(2, TimeUnit.SECONDS);
+    logger.info("sent " + generator.getSent());
+    assertTrue(generator.getSent() >= 1800 && generator.getSent() <= 2200);
+    assertEquals(0, generator.getFailed());
+    assertEquals(generator.getSent(), generator.getAcked());
+    assertEquals(generator.getSent(), generator.getHistogram().getTotalCount());
+    assertEquals(generator.getSent(), TestUtils.readMessages(topic, zkURL).size());
+  }
+
+
   @After
   public void tearDown() throws Exception {
     writer.close();
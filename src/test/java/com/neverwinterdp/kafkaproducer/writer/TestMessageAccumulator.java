@@ -0,0 +1,111 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kafka.common.FailedToSendMessageException;
+import kafka.producer.KeyedMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMessageAccumulator {
+
+  private List<List<KeyedMessage<String, String>>> sent;
+  private MessageAccumulator.Sender<String, String> sender;
+
+  @Before
+  public void setUp() {
+    sent = new ArrayList<>();
+    sender = new MessageAccumulator.Sender<String, String>() {
+      @Override
+      public void send(List<KeyedMessage<String, String>> batch) {
+        synchronized (sent) {
+          sent.add(batch);
+        }
+      }
+    };
+  }
+
+  @Test
+  public void testFlushOnMaxMessages() {
+    MessageAccumulator<String, String> accumulator =
+        new MessageAccumulator<>(sender, 3, Long.MAX_VALUE, 0);
+    for (int i = 0; i < 7; i++) {
+      accumulator.append(0, message(i), 1);
+    }
+    assertEquals(2, sent.size());
+    assertEquals(1, accumulator.size());
+    accumulator.close();
+    assertEquals(3, sent.size());
+    assertEquals("6", sent.get(2).get(0).message());
+  }
+
+  @Test
+  public void testFlushOnMaxBytes() {
+    MessageAccumulator<String, String> accumulator =
+        new MessageAccumulator<>(sender, Integer.MAX_VALUE, 10, 0);
+    accumulator.append(0, message(0), 6);
+    assertEquals(0, sent.size());
+    accumulator.append(0, message(1), 6);
+    assertEquals(1, sent.size());
+    assertEquals(2, sent.get(0).size());
+  }
+
+  @Test
+  public void testBuffersArePerPartition() {
+    MessageAccumulator<String, String> accumulator =
+        new MessageAccumulator<>(sender, 2, Long.MAX_VALUE, 0);
+    accumulator.append(0, message(0), 1);
+    accumulator.append(1, message(1), 1);
+    assertEquals(0, sent.size());
+    accumulator.append(1, message(2), 1);
+    assertEquals(1, sent.size());
+    assertEquals("1", sent.get(0).get(0).message());
+    assertEquals("2", sent.get(0).get(1).message());
+  }
+
+  @Test
+  public void testFlushOnLinger() throws Exception {
+    MessageAccumulator<String, String> accumulator =
+        new MessageAccumulator<>(sender, Integer.MAX_VALUE, Long.MAX_VALUE, 50);
+    accumulator.append(0, message(0), 1);
+    for (int i = 0; i < 100 && accumulator.size() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, accumulator.size());
+    assertEquals(1, sent.size());
+    accumulator.close();
+  }
+
+  @Test
+  public void testLingerErrorIsRethrown() throws Exception {
+    MessageAccumulator<String, String> accumulator =
+        new MessageAccumulator<>(new MessageAccumulator.Sender<String, String>() {
+          @Override
+          public void send(List<KeyedMessage<String, String>> batch) {
+            throw new FailedToSendMessageException("no brokers", new Throwable());
+          }
+        }, Integer.MAX_VALUE, Long.MAX_VALUE, 20);
+    accumulator.append(0, message(0), 1);
+    Thread.sleep(200);
+    try {
+      accumulator.append(0, message(1), 1);
+      fail("expected the linger error");
+    } catch (FailedToSendMessageException e) {
+      // about the dropped message 0, message 1 was not buffered
+      assertTrue(e.getMessage().startsWith("Failed to send 1 earlier"));
+      assertEquals("no brokers", e.getCause().getMessage());
+    }
+    assertEquals(0, accumulator.size());
+    accumulator.append(0, message(2), 1);
+  }
+
+  private KeyedMessage<String, String> message(int i) {
+    return new KeyedMessage<String, String>("topic", "0", Integer.toString(i));
+  }
+}
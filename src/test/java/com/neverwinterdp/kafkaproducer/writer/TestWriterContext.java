@@ -0,0 +1,95 @@
+package com.neverwinterdp.kafkaproducer.writer;
+
+import static com.neverwinterdp.kafkaproducer.util.Utils.printRunningThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.neverwinterdp.kafkaproducer.servers.EmbeddedCluster;
+import com.neverwinterdp.kafkaproducer.util.TestUtils;
+import com.neverwinterdp.kafkaproducer.util.ZookeeperHelper;
+
+public class TestWriterContext {
+  static {
+    System.setProperty("log4j.configuration", "file:src/test/resources/log4j.properties");
+  }
+
+  private static final Logger logger = Logger.getLogger(TestWriterContext.class);
+  private static String zkURL;
+  private static EmbeddedCluster cluster;
+  private static ZookeeperHelper helper;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    printRunningThreads();
+    cluster = new EmbeddedCluster(1, 1);
+    cluster.start();
+    zkURL = cluster.getZkURL();
+    helper = new ZookeeperHelper(zkURL);
+    Thread.sleep(3000);
+  }
+
+  @Test
+  public void testWritersShareOneProducer() throws Exception {
+    int writers = 10;
+    int partitions = 2;
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, partitions, 1);
+
+    try (WriterContext context = new WriterContext(zkURL)) {
+      List<KafkaWriter> handles = new ArrayList<>();
+      for (int i = 0; i < writers; i++) {
+        handles.add(new KafkaWriter.Builder(zkURL, topic).partition(i % partitions)
+            .context(context).build());
+      }
+      assertEquals(1, context.getProducerCount());
+      assertSame(context.getZookeeperHelper().getTopicMetadataCache(topic), context
+          .getZookeeperHelper().getTopicMetadataCache(topic));
+
+      for (KafkaWriter writer : handles) {
+        for (int i = 0; i < 10; i++) {
+          writer.write("message" + i);
+        }
+      }
+      for (KafkaWriter writer : handles) {
+        writer.close();
+      }
+      assertEquals(0, context.getProducerCount());
+    }
+    assertEquals(writers * 10, TestUtils.readMessages(topic, zkURL).size());
+  }
+
+  @Test
+  public void testDifferentConfigsGetDifferentProducers() throws Exception {
+    String topic = TestUtils.createRandomTopic();
+    helper.createTopic(topic, 1, 1);
+    try (WriterContext context = new WriterContext(zkURL)) {
+      KafkaWriter scala = new KafkaWriter.Builder(zkURL, topic).partition(0).context(context).build();
+      KafkaWriter java = new KafkaWriter.Builder(zkURL, topic).partition(0).context(context)
+          .engine(ProducerEngine.JAVA).build();
+      assertEquals(2, context.getProducerCount());
+      scala.write("scala");
+      java.write("java");
+      scala.close();
+      assertEquals(1, context.getProducerCount());
+      java.close();
+    }
+    assertEquals(2, TestUtils.readMessages(topic, zkURL).size());
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    logger.info("tearDownClass.");
+    helper.deleteKafkaData();
+    helper.close();
+    cluster.shutdown();
+    printRunningThreads();
+  }
+}